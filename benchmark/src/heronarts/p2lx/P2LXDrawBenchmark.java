@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import heronarts.lx.LX;
+import heronarts.lx.pattern.LXPattern;
+import heronarts.p2lx.benchmark.Benchmark;
+import heronarts.p2lx.benchmark.BenchmarkModels;
+import heronarts.p2lx.benchmark.BenchmarkRunner;
+
+/**
+ * Picking up the engine's colors as P2LX.draw() does for each frame, through
+ * the same code but without an applet. The engine is either unthreaded, so
+ * each frame runs it, or threaded, in which case each frame copies from it
+ * under the engine lock or takes its latest frame from the triple buffer.
+ * The engine runs a pattern writing every point.
+ */
+public class P2LXDrawBenchmark extends Benchmark {
+
+  private enum Mode {
+    UNTHREADED,
+    THREADED,
+    TRIPLE_BUFFERED
+  };
+
+  private final Mode mode;
+
+  private LX lx;
+
+  private P2LXEngineColors engineColors;
+
+  public static void addAll(BenchmarkRunner runner) {
+    runner.add(new P2LXDrawBenchmark("P2LX.draw.unthreaded", Mode.UNTHREADED));
+    runner.add(new P2LXDrawBenchmark("P2LX.draw.threaded", Mode.THREADED));
+    runner.add(new P2LXDrawBenchmark("P2LX.draw.threaded.tripleBuffered", Mode.TRIPLE_BUFFERED));
+  }
+
+  private P2LXDrawBenchmark(String name, Mode mode) {
+    super(name);
+    this.mode = mode;
+  }
+
+  @Override
+  protected void setup(int size) {
+    this.lx = new LX(BenchmarkModels.grid(size)) {};
+    this.lx.setPatterns(new LXPattern[] { new Gradient(this.lx) });
+    this.engineColors = new P2LXEngineColors(this.lx);
+    this.engineColors.setTripleBuffered(this.mode == Mode.TRIPLE_BUFFERED);
+    this.engineColors.setThreaded(this.mode != Mode.UNTHREADED);
+  }
+
+  @Override
+  protected void run() {
+    this.engineColors.update();
+    consume(this.engineColors.getColors());
+  }
+
+  @Override
+  protected void teardown() {
+    this.engineColors.setThreaded(false);
+    this.engineColors = null;
+    this.lx = null;
+  }
+
+  /**
+   * Scrolls a gradient across every point, so that each engine frame does
+   * work in proportion to the model size
+   */
+  private static class Gradient extends LXPattern {
+
+    private int offset = 0;
+
+    private Gradient(LX lx) {
+      super(lx);
+    }
+
+    @Override
+    protected void run(double deltaMs) {
+      for (int i = 0; i < this.colors.length; ++i) {
+        this.colors[i] = 0xff000000 | ((i + this.offset) & 0xffffff);
+      }
+      ++this.offset;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+/**
+ * A single benchmark, run repeatedly against models of different sizes by
+ * the {@link BenchmarkRunner}. Each call to run() is one timed operation.
+ */
+public abstract class Benchmark {
+
+  /**
+   * Results are written here so that the JIT cannot discard the work
+   */
+  private static volatile int sink;
+
+  public final String name;
+
+  protected Benchmark(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Whether this benchmark can run in the current environment
+   *
+   * @return true if it can run
+   */
+  public boolean isAvailable() {
+    return true;
+  }
+
+  /**
+   * Prepares state for a model with the given number of points
+   *
+   * @param size Number of points
+   */
+  protected abstract void setup(int size);
+
+  /**
+   * Performs one timed operation
+   */
+  protected abstract void run();
+
+  /**
+   * Releases any state created by setup
+   */
+  protected void teardown() {}
+
+  /**
+   * Consumes a result so that the work producing it is not optimized away
+   *
+   * @param value Result
+   */
+  protected static void consume(int value) {
+    sink ^= value;
+  }
+
+  protected static void consume(int[] values) {
+    sink ^= values[0] ^ values[values.length - 1];
+  }
+}
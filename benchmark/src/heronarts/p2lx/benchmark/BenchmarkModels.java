@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.lx.model.GridModel;
+
+/**
+ * Models shared between benchmarks. LX numbers points globally, so only one
+ * model may be built per JVM for point indices to start at zero.
+ */
+public class BenchmarkModels {
+
+  private static GridModel grid = null;
+
+  private static int gridSize = 0;
+
+  /**
+   * A roughly square grid model with the given number of points
+   *
+   * @param size Number of points
+   * @return Grid model
+   */
+  public static synchronized GridModel grid(int size) {
+    if (grid == null) {
+      int width = (int) Math.ceil(Math.sqrt(size));
+      grid = new GridModel(width, Math.max(1, size / width));
+      gridSize = size;
+    } else if (gridSize != size) {
+      throw new IllegalStateException("Only one model size may be used per JVM");
+    }
+    return grid;
+  }
+}
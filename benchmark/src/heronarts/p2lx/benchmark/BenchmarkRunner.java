@@ -0,0 +1,227 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.p2lx.LatencyHistogram;
+import heronarts.p2lx.P2LXDrawBenchmark;
+import heronarts.p2lx.ui.component.PointCloudPackingBenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the headless benchmark suites and prints latency statistics for each
+ * benchmark at each model size. Each size runs in a forked JVM, so that JIT
+ * state does not carry over between sizes, and because LX numbers points
+ * globally, so only the first model built in a JVM starts at index zero.
+ * After the warmup iterations, warming up continues until an iteration runs
+ * without the JIT compiling anything, since compiler threads compete with
+ * the benchmark for the CPU and skew short runs. Options:
+ *
+ * <pre>
+ *   -sizes 1000,10000,100000,1000000   Model sizes, in points
+ *   -warmup 2                          Warmup iterations, not reported
+ *   -iterations 5                      Measured iterations
+ *   -time 1000                         Length of each iteration, in ms
+ *   -filter name                       Only run benchmarks containing name
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+  /**
+   * Most warmup iterations spent waiting for the JIT to settle
+   */
+  private static final int MAX_SETTLE_ITERATIONS = 10;
+
+  private int[] sizes = { 1000, 10000, 100000, 1000000 };
+
+  private int warmupIterations = 2;
+
+  private int iterations = 5;
+
+  private long iterationMillis = 1000;
+
+  private String filter = null;
+
+  private final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+  public BenchmarkRunner add(Benchmark benchmark) {
+    this.benchmarks.add(benchmark);
+    return this;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    BenchmarkRunner runner = new BenchmarkRunner();
+    for (int i = 0; i < args.length - 1; i += 2) {
+      String value = args[i + 1];
+      if (args[i].equals("-sizes")) {
+        String[] parts = value.split(",");
+        runner.sizes = new int[parts.length];
+        for (int j = 0; j < parts.length; ++j) {
+          runner.sizes[j] = Integer.parseInt(parts[j].trim());
+        }
+      } else if (args[i].equals("-warmup")) {
+        runner.warmupIterations = Integer.parseInt(value);
+      } else if (args[i].equals("-iterations")) {
+        runner.iterations = Integer.parseInt(value);
+      } else if (args[i].equals("-time")) {
+        runner.iterationMillis = Long.parseLong(value);
+      } else if (args[i].equals("-filter")) {
+        runner.filter = value;
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    if (runner.sizes.length > 1) {
+      printHeader();
+      for (int size : runner.sizes) {
+        fork(args, size);
+      }
+      return;
+    }
+
+    P2LXDrawBenchmark.addAll(runner);
+    CanvasSamplerBenchmark.addAll(runner);
+    PointCloudPackingBenchmark.addAll(runner);
+    PixelFontBenchmark.addAll(runner);
+    UIBenchmark.addAll(runner);
+    if (System.getProperty("p2lx.benchmark.forked") == null) {
+      printHeader();
+    }
+    runner.run();
+  }
+
+  private static void printHeader() {
+    System.out.println(String.format("%-44s %9s %9s %11s %11s %11s",
+      "benchmark", "size", "ops", "mean(us)", "p50(us)", "p99(us)"));
+  }
+
+  /**
+   * Runs all benchmarks for one size in a child JVM with the same options
+   */
+  private static void fork(String[] args, int size) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-Djava.awt.headless=true");
+    command.add("-Dp2lx.benchmark.forked=true");
+    command.add("-Dp2lx.data=" + System.getProperty("p2lx.data", "data"));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(BenchmarkRunner.class.getName());
+    for (int i = 0; i < args.length - 1; i += 2) {
+      if (!args[i].equals("-sizes")) {
+        command.addAll(Arrays.asList(args[i], args[i + 1]));
+      }
+    }
+    command.add("-sizes");
+    command.add(Integer.toString(size));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    Process process = builder.start();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = process.getInputStream().read(buffer)) > 0) {
+      System.out.write(buffer, 0, read);
+    }
+    System.out.flush();
+    if (process.waitFor() != 0) {
+      throw new RuntimeException("Benchmark run for size " + size + " failed");
+    }
+  }
+
+  public void run() {
+    for (Benchmark benchmark : this.benchmarks) {
+      if ((this.filter != null) && !benchmark.name.contains(this.filter)) {
+        continue;
+      }
+      if (!benchmark.isAvailable()) {
+        System.out.println(String.format("%-44s skipped, not available in this environment", benchmark.name));
+        continue;
+      }
+      for (int size : this.sizes) {
+        run(benchmark, size);
+      }
+    }
+  }
+
+  private void run(Benchmark benchmark, int size) {
+    LatencyHistogram histogram = new LatencyHistogram(benchmark.name);
+    benchmark.setup(size);
+    try {
+      for (int i = 0; i < this.warmupIterations; ++i) {
+        iterate(benchmark, histogram);
+      }
+      settle(benchmark, histogram);
+      histogram.reset();
+      for (int i = 0; i < this.iterations; ++i) {
+        iterate(benchmark, histogram);
+      }
+    } finally {
+      benchmark.teardown();
+    }
+    System.out.println(String.format("%-44s %9d %9d %11.2f %11.2f %11.2f",
+      benchmark.name, size, histogram.getCount(),
+      histogram.getMean() / 1000.,
+      histogram.getP50() / 1000.,
+      histogram.getP99() / 1000.));
+  }
+
+  /**
+   * Keeps warming up until an iteration passes in which the JIT compiled
+   * nothing, up to a limit. A previous suite may leave a backlog of
+   * compilation, drawing code in particular, that would otherwise run
+   * alongside the measured iterations.
+   */
+  private void settle(Benchmark benchmark, LatencyHistogram histogram) {
+    CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+    if ((compiler == null) || !compiler.isCompilationTimeMonitoringSupported()) {
+      return;
+    }
+    for (int i = 0; i < MAX_SETTLE_ITERATIONS; ++i) {
+      long compilationMillis = compiler.getTotalCompilationTime();
+      iterate(benchmark, histogram);
+      if (compiler.getTotalCompilationTime() == compilationMillis) {
+        return;
+      }
+    }
+  }
+
+  private void iterate(Benchmark benchmark, LatencyHistogram histogram) {
+    long end = System.nanoTime() + this.iterationMillis * 1000000L;
+    long now;
+    do {
+      long start = System.nanoTime();
+      benchmark.run();
+      now = System.nanoTime();
+      histogram.record(now - start);
+    } while (now < end);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.lx.LXLoopTask;
+import heronarts.lx.model.GridModel;
+import heronarts.lx.pattern.LXPattern;
+import heronarts.p2lx.LatencyHistogram;
+import heronarts.p2lx.P2LX;
+import heronarts.p2lx.font.PixelFontPattern;
+import processing.core.PApplet;
+
+/**
+ * Sketch measuring P2LX.draw() with a PixelFontPattern running, which needs
+ * an OpenGL window and so cannot run headless. Run one configuration at a
+ * time, for instance:
+ *
+ * <pre>
+ *   java heronarts.p2lx.benchmark.BenchmarkSketch -size 100000 -threaded true -frames 600
+ * </pre>
+ *
+ * The P2LX draw, engine copy and pattern run histograms are printed once the
+ * frames have been drawn, after a warmup of the same length. The engine side
+ * of draw() is also covered headless, with the other suites, by
+ * {@link heronarts.p2lx.P2LXDrawBenchmark}.
+ */
+public class BenchmarkSketch extends PApplet {
+
+  private static final long serialVersionUID = 1L;
+
+  private int size = 10000;
+
+  private boolean threaded = false;
+
+  private int frames = 600;
+
+  private P2LX lx;
+
+  private PixelFontPattern pattern;
+
+  private final LatencyHistogram patternHistogram = new LatencyHistogram("PixelFontPattern.run");
+
+  private int frame = 0;
+
+  public static void main(String[] args) {
+    PApplet.main(BenchmarkSketch.class.getName(), args);
+  }
+
+  @Override
+  public void setup() {
+    size(640, 480, P3D);
+    frameRate(1000);
+    if (this.args != null) {
+      for (int i = 0; i < this.args.length - 1; i += 2) {
+        String value = this.args[i + 1];
+        if (this.args[i].equals("-size")) {
+          this.size = Integer.parseInt(value);
+        } else if (this.args[i].equals("-threaded")) {
+          this.threaded = Boolean.parseBoolean(value);
+        } else if (this.args[i].equals("-frames")) {
+          this.frames = Integer.parseInt(value);
+        }
+      }
+    }
+    GridModel model = BenchmarkModels.grid(this.size);
+    this.lx = new P2LX(this, model);
+    this.pattern = new PixelFontPattern(this.lx);
+    this.lx.setPatterns(new LXPattern[] { this.pattern });
+    this.lx.engine.addLoopTask(new LXLoopTask() {
+      public void loop(double deltaMs) {
+        patternHistogram.record(pattern.timer.runNanos);
+      }
+    });
+    this.lx.setThreaded(this.threaded);
+  }
+
+  @Override
+  public void draw() {
+    background(0);
+    ++this.frame;
+    if (this.frame == this.frames) {
+      this.lx.drawHistogram.reset();
+      this.lx.engineHistogram.reset();
+      this.patternHistogram.reset();
+    } else if (this.frame == 2 * this.frames) {
+      System.out.println("size=" + this.size + " threaded=" + this.threaded);
+      System.out.println(this.lx.drawHistogram);
+      System.out.println(this.lx.engineHistogram);
+      System.out.println(this.patternHistogram);
+      this.lx.setThreaded(false);
+      exit();
+    }
+  }
+}
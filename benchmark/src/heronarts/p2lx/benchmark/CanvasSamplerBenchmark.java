@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.lx.model.GridModel;
+import heronarts.p2lx.P2LXCanvasSampler;
+import heronarts.p2lx.P2LXGraphicsPattern;
+
+/**
+ * Pixel transfer from a graphics pattern's canvas into its colors: a direct
+ * copy for canvases matching the model, or sampling through a precomputed
+ * table for supersampled canvases.
+ */
+public class CanvasSamplerBenchmark extends Benchmark {
+
+  /**
+   * Canvas pixels per point along each axis when sampling
+   */
+  private static final int SUPERSAMPLE = 2;
+
+  private final P2LXGraphicsPattern.Sampling sampling;
+
+  private final boolean parallel;
+
+  private P2LXCanvasSampler sampler;
+
+  private int[] pixels;
+
+  private int[] colors;
+
+  static void addAll(BenchmarkRunner runner) {
+    runner.add(new CanvasSamplerBenchmark(null, false));
+    for (P2LXGraphicsPattern.Sampling sampling : P2LXGraphicsPattern.Sampling.values()) {
+      runner.add(new CanvasSamplerBenchmark(sampling, false));
+      runner.add(new CanvasSamplerBenchmark(sampling, true));
+    }
+  }
+
+  private CanvasSamplerBenchmark(P2LXGraphicsPattern.Sampling sampling, boolean parallel) {
+    super("GraphicsPattern.transfer." + ((sampling == null) ? "COPY" : sampling) + (parallel ? ".parallel" : ""));
+    this.sampling = sampling;
+    this.parallel = parallel;
+  }
+
+  @Override
+  protected void setup(int size) {
+    GridModel model = BenchmarkModels.grid(size);
+    this.colors = new int[model.size];
+    if (this.sampling == null) {
+      this.pixels = new int[model.size];
+      this.sampler = null;
+    } else {
+      int width = model.width * SUPERSAMPLE;
+      int height = model.height * SUPERSAMPLE;
+      this.pixels = new int[width * height];
+      this.sampler = new P2LXCanvasSampler(model, model.size, width, height, this.sampling, SUPERSAMPLE);
+    }
+    for (int i = 0; i < this.pixels.length; ++i) {
+      this.pixels[i] = 0xff000000 | ((i * 0x9e3779b1) >>> 8);
+    }
+  }
+
+  @Override
+  protected void run() {
+    if (this.sampler == null) {
+      System.arraycopy(this.pixels, 0, this.colors, 0, this.colors.length);
+    } else {
+      this.sampler.sample(this.pixels, this.colors, this.parallel);
+    }
+    consume(this.colors);
+  }
+
+  @Override
+  protected void teardown() {
+    this.sampler = null;
+    this.pixels = null;
+    this.colors = null;
+  }
+}
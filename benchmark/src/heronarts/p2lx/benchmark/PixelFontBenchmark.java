@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.p2lx.font.PixelFont;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * Rendering ticker text with PixelFont into a reusable buffer five rows high
+ * and as wide as the model has points in those rows, as a scrolling
+ * PixelFontPattern would every time its text changes. The alphabet is read
+ * from the directory in the p2lx.data system property.
+ */
+public class PixelFontBenchmark extends Benchmark {
+
+  private static final String TEXT = "THE QUICK BROWN FOX JUMPED OVER THE LAZY DOG. ";
+
+  private PixelFont font;
+
+  private int[] buffer;
+
+  private int width;
+
+  private int offset = 0;
+
+  static void addAll(BenchmarkRunner runner) {
+    runner.add(new PixelFontBenchmark());
+  }
+
+  private PixelFontBenchmark() {
+    super("PixelFont.drawString.buffer");
+  }
+
+  @Override
+  protected void setup(int size) {
+    File file = new File(System.getProperty("p2lx.data", "data"), "PixelFont.png");
+    try {
+      BufferedImage image = ImageIO.read(file);
+      PImage alphabet = new PImage(image.getWidth(), image.getHeight(), PConstants.ARGB);
+      image.getRGB(0, 0, image.getWidth(), image.getHeight(), alphabet.pixels, 0, image.getWidth());
+      this.font = new PixelFont(alphabet);
+    } catch (IOException iox) {
+      throw new RuntimeException("Could not read " + file, iox);
+    }
+    this.width = Math.max(1, size / PixelFont.HEIGHT);
+    this.buffer = new int[this.width * PixelFont.HEIGHT];
+  }
+
+  @Override
+  protected void run() {
+    int textWidth = this.font.getWidth(TEXT);
+    int x = -this.offset;
+    while (x < this.width) {
+      x += this.font.drawString(TEXT, this.buffer, this.width, x, 0) + 1;
+    }
+    this.offset = (this.offset + 1) % textWidth;
+    consume(this.buffer);
+  }
+
+  @Override
+  protected void teardown() {
+    this.font = null;
+    this.buffer = null;
+  }
+}
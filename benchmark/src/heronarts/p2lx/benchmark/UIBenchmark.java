@@ -0,0 +1,154 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import java.awt.event.KeyEvent;
+
+/**
+ * Drawing and mouse dispatch through an offscreen UI holding a grid of
+ * controls. The tree has one control for every hundred points in the model,
+ * and at least sixteen.
+ */
+public class UIBenchmark extends Benchmark {
+
+  private enum Mode {
+    /**
+     * A frame in which nothing has changed
+     */
+    IDLE,
+
+    /**
+     * A frame in which one knob's parameter has changed
+     */
+    KNOB,
+
+    /**
+     * A frame in which the whole window is redrawn
+     */
+    WINDOW,
+
+    /**
+     * Pressing and releasing the mouse on a control, without drawing
+     */
+    PRESS,
+
+    /**
+     * Moving the mouse onto a control, without drawing
+     */
+    MOVE,
+
+    /**
+     * Moving focus to the next control with the Tab key, without drawing
+     */
+    TAB
+  };
+
+  private final Mode mode;
+
+  private final boolean hitIndex;
+
+  private UIHarness harness;
+
+  private UIBenchmarkTree tree;
+
+  private int cursor = 0;
+
+  static void addAll(BenchmarkRunner runner) {
+    runner.add(new UIBenchmark("UI.draw.idle", Mode.IDLE));
+    runner.add(new UIBenchmark("UI.draw.knob", Mode.KNOB));
+    runner.add(new UIBenchmark("UI.draw.window", Mode.WINDOW));
+    runner.add(new UIBenchmark("UI.mousePressed", Mode.PRESS));
+    runner.add(new UIBenchmark("UI.mousePressed.indexed", Mode.PRESS, true));
+    runner.add(new UIBenchmark("UI.mouseMoved", Mode.MOVE));
+    runner.add(new UIBenchmark("UI.mouseMoved.indexed", Mode.MOVE, true));
+    runner.add(new UIBenchmark("UI.keyPressed.tab", Mode.TAB));
+  }
+
+  private UIBenchmark(String name, Mode mode) {
+    this(name, mode, false);
+  }
+
+  private UIBenchmark(String name, Mode mode, boolean hitIndex) {
+    super(name);
+    this.mode = mode;
+    this.hitIndex = hitIndex;
+  }
+
+  @Override
+  protected void setup(int size) {
+    int controls = Math.max(16, size / 100);
+    int surfaceSize = UIBenchmarkTree.surfaceSize(controls);
+    this.harness = new UIHarness(surfaceSize, surfaceSize);
+    this.tree = new UIBenchmarkTree(this.harness, controls);
+    this.tree.window.setHitIndex(this.hitIndex);
+    this.harness.draw();
+  }
+
+  @Override
+  protected void run() {
+    switch (this.mode) {
+    case IDLE:
+      this.harness.draw();
+      break;
+    case KNOB:
+      int knob = nextKnob();
+      this.tree.parameters[knob].setNormalized(1 - this.tree.parameters[knob].getNormalized());
+      this.harness.draw();
+      break;
+    case WINDOW:
+      this.tree.window.redraw();
+      this.harness.draw();
+      break;
+    case PRESS:
+      int control = this.cursor++ % this.tree.controls;
+      float x = this.tree.controlX(control);
+      float y = this.tree.controlY(control);
+      this.harness.mousePressed(x, y).mouseReleased(x, y);
+      break;
+    case MOVE:
+      int hovered = this.cursor++ % this.tree.controls;
+      this.harness.mouseMoved(this.tree.controlX(hovered), this.tree.controlY(hovered));
+      break;
+    case TAB:
+      this.harness.key('\t', KeyEvent.VK_TAB, false);
+      break;
+    }
+    consume(this.cursor);
+  }
+
+  private int nextKnob() {
+    int index;
+    do {
+      index = this.cursor++ % this.tree.controls;
+    } while (this.tree.parameters[index] == null);
+    return index;
+  }
+
+  @Override
+  protected void teardown() {
+    this.harness = null;
+    this.tree = null;
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.lx.parameter.BasicParameter;
+import heronarts.p2lx.ui.UIWindow;
+import heronarts.p2lx.ui.component.UIButton;
+import heronarts.p2lx.ui.component.UIKnob;
+
+/**
+ * A window holding a square grid of knobs and buttons, for driving the UI
+ * with a realistic number of controls. Every fourth control is a button.
+ */
+class UIBenchmarkTree {
+
+  static final int PITCH = 32;
+
+  static final int MARGIN = 8;
+
+  final UIWindow window;
+
+  final int columns;
+
+  final int controls;
+
+  final BasicParameter[] parameters;
+
+  /**
+   * Size of the surface needed to hold a tree with the given number of
+   * controls
+   *
+   * @param controls Number of controls
+   * @return Width and height in pixels
+   */
+  static int surfaceSize(int controls) {
+    return 2 * MARGIN + columns(controls) * PITCH + UIWindow.TITLE_LABEL_HEIGHT;
+  }
+
+  private static int columns(int controls) {
+    return (int) Math.ceil(Math.sqrt(controls));
+  }
+
+  UIBenchmarkTree(UIHarness harness, int controls) {
+    this.controls = controls;
+    this.columns = columns(controls);
+    int size = this.columns * PITCH;
+    this.window = new UIWindow(harness.ui, "Benchmark", MARGIN, MARGIN, size, size + UIWindow.TITLE_LABEL_HEIGHT);
+    this.parameters = new BasicParameter[controls];
+    for (int i = 0; i < controls; ++i) {
+      float x = (i % this.columns) * PITCH + 2;
+      float y = UIWindow.TITLE_LABEL_HEIGHT + (i / this.columns) * PITCH + 2;
+      if (i % 4 == 3) {
+        new UIButton(x, y, UIKnob.KNOB_SIZE, UIKnob.KNOB_SIZE)
+          .setLabel("B")
+          .addToContainer(this.window);
+      } else {
+        this.parameters[i] = new BasicParameter("K" + i, (i % 10) / 10.);
+        new UIKnob(x, y)
+          .setParameter(this.parameters[i])
+          .addToContainer(this.window);
+      }
+    }
+    harness.ui.addLayer(this.window);
+  }
+
+  /**
+   * X-position of the center of a control, on the surface
+   *
+   * @param index Control index
+   * @return X-position
+   */
+  float controlX(int index) {
+    return MARGIN + (index % this.columns) * PITCH + 2 + UIKnob.KNOB_SIZE / 2;
+  }
+
+  /**
+   * Y-position of the center of a control, on the surface
+   *
+   * @param index Control index
+   * @return Y-position
+   */
+  float controlY(int index) {
+    return MARGIN + UIWindow.TITLE_LABEL_HEIGHT + (index / this.columns) * PITCH + 2 + UIKnob.KNOB_SIZE / 2;
+  }
+}
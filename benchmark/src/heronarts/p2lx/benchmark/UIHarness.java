@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import heronarts.p2lx.LatencyHistogram;
+import heronarts.p2lx.ui.UI;
+import heronarts.p2lx.ui.UIOffscreenGraphics;
+
+import java.util.zip.CRC32;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.event.Event;
+import processing.event.KeyEvent;
+import processing.event.MouseEvent;
+
+/**
+ * Drives a UI against an offscreen JAVA2D surface, see {@link UIOffscreenGraphics}, with no sketch or
+ * display. Input is injected as Processing events, dispatched immediately
+ * as they would be from a sketch with an unthreaded engine. Each frame is
+ * timed, and the rendered surface can be hashed so that a scripted session
+ * produces a sequence of hashes to compare between builds.
+ *
+ * Hashes depend on the fonts installed, so they are only comparable between
+ * runs on the same machine.
+ */
+public class UIHarness {
+
+  /**
+   * Synthetic time between frames, used to stamp injected events
+   */
+  private static final long FRAME_MILLIS = 16;
+
+  public final PGraphics surface;
+
+  public final UI ui;
+
+  /**
+   * Time spent in each frame, from beginDraw() through endDraw()
+   */
+  public final LatencyHistogram frameHistogram = new LatencyHistogram("UI frame");
+
+  private final CRC32 crc = new CRC32();
+
+  private byte[] hashBytes = null;
+
+  private long millis = 0;
+
+  private int frame = 0;
+
+  public UIHarness(int width, int height) {
+    this.surface = new UIOffscreenGraphics(width, height);
+    this.ui = new UI(this.surface);
+  }
+
+  /**
+   * Number of frames drawn so far
+   *
+   * @return Frame count
+   */
+  public int getFrame() {
+    return this.frame;
+  }
+
+  /**
+   * Draws one frame of the UI into the surface
+   *
+   * @return Time taken in nanoseconds
+   */
+  public long draw() {
+    long start = System.nanoTime();
+    this.surface.beginDraw();
+    this.ui.draw();
+    this.surface.endDraw();
+    long nanos = System.nanoTime() - start;
+    this.frameHistogram.record(nanos);
+    this.millis += FRAME_MILLIS;
+    ++this.frame;
+    return nanos;
+  }
+
+  /**
+   * Hash of the pixels currently on the surface
+   *
+   * @return CRC32 of the surface pixels
+   */
+  public long hash() {
+    this.surface.loadPixels();
+    int[] pixels = this.surface.pixels;
+    if ((this.hashBytes == null) || (this.hashBytes.length != pixels.length * 4)) {
+      this.hashBytes = new byte[pixels.length * 4];
+    }
+    byte[] bytes = this.hashBytes;
+    for (int i = 0, b = 0; i < pixels.length; ++i) {
+      int argb = pixels[i];
+      bytes[b++] = (byte) (argb >>> 24);
+      bytes[b++] = (byte) (argb >>> 16);
+      bytes[b++] = (byte) (argb >>> 8);
+      bytes[b++] = (byte) argb;
+    }
+    this.crc.reset();
+    this.crc.update(bytes, 0, bytes.length);
+    return this.crc.getValue();
+  }
+
+  public UIHarness mousePressed(float x, float y) {
+    return mouseEvent(MouseEvent.PRESS, x, y, 1);
+  }
+
+  public UIHarness mouseMoved(float x, float y) {
+    return mouseEvent(MouseEvent.MOVE, x, y, 0);
+  }
+
+  public UIHarness mouseDragged(float x, float y) {
+    return mouseEvent(MouseEvent.DRAG, x, y, 0);
+  }
+
+  public UIHarness mouseReleased(float x, float y) {
+    return mouseEvent(MouseEvent.RELEASE, x, y, 1);
+  }
+
+  public UIHarness mouseClicked(float x, float y) {
+    return mouseEvent(MouseEvent.CLICK, x, y, 1);
+  }
+
+  /**
+   * Presses, releases and clicks at a position
+   *
+   * @param x X-position
+   * @param y Y-position
+   * @return this
+   */
+  public UIHarness click(float x, float y) {
+    return mousePressed(x, y).mouseReleased(x, y).mouseClicked(x, y);
+  }
+
+  public UIHarness mouseWheel(float x, float y, int count) {
+    return mouseEvent(MouseEvent.WHEEL, x, y, count);
+  }
+
+  private UIHarness mouseEvent(int action, float x, float y, int count) {
+    this.ui.mouseEvent(new MouseEvent(null, this.millis, action, 0, (int) x, (int) y, PConstants.LEFT, count));
+    return this;
+  }
+
+  public UIHarness keyPressed(char key, int keyCode, boolean shift) {
+    return keyEvent(KeyEvent.PRESS, key, keyCode, shift);
+  }
+
+  public UIHarness keyReleased(char key, int keyCode, boolean shift) {
+    return keyEvent(KeyEvent.RELEASE, key, keyCode, shift);
+  }
+
+  /**
+   * Presses and releases a key
+   *
+   * @param key Key character
+   * @param keyCode Key code, from java.awt.event.KeyEvent
+   * @param shift Whether shift is held
+   * @return this
+   */
+  public UIHarness key(char key, int keyCode, boolean shift) {
+    return keyPressed(key, keyCode, shift).keyReleased(key, keyCode, shift);
+  }
+
+  private UIHarness keyEvent(int action, char key, int keyCode, boolean shift) {
+    this.ui.keyEvent(new KeyEvent(null, this.millis, action, shift ? Event.SHIFT : 0, key, keyCode));
+    return this;
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.benchmark;
+
+import java.awt.event.KeyEvent;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+/**
+ * Plays a fixed script of mouse and keyboard input against an offscreen UI
+ * and writes the hash and draw time of every frame, one per line. Two runs
+ * of the same build produce the same hashes, so diffing the output of two
+ * builds shows the first frame where rendering changed. Options:
+ *
+ * <pre>
+ *   -controls 256      Number of controls in the UI
+ *   -frames 600        Number of frames to draw
+ *   -out file          Write frames to a file rather than standard out
+ * </pre>
+ */
+public class UISession {
+
+  /**
+   * Frames spent on each step of the script
+   */
+  private static final int STEP_FRAMES = 4;
+
+  private final UIHarness harness;
+
+  private final UIBenchmarkTree tree;
+
+  private int control = 0;
+
+  private UISession(int controls) {
+    int size = UIBenchmarkTree.surfaceSize(controls);
+    this.harness = new UIHarness(size, size);
+    this.tree = new UIBenchmarkTree(this.harness, controls);
+  }
+
+  public static void main(String[] args) throws FileNotFoundException {
+    int controls = 256;
+    int frames = 600;
+    PrintStream out = System.out;
+    for (int i = 0; i < args.length - 1; i += 2) {
+      String value = args[i + 1];
+      if (args[i].equals("-controls")) {
+        controls = Integer.parseInt(value);
+      } else if (args[i].equals("-frames")) {
+        frames = Integer.parseInt(value);
+      } else if (args[i].equals("-out")) {
+        out = new PrintStream(value);
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    UISession session = new UISession(controls);
+    for (int frame = 0; frame < frames; ++frame) {
+      session.step(frame);
+      long nanos = session.harness.draw();
+      out.println(String.format("%6d %08x %10.1f", frame, session.harness.hash(), nanos / 1000.));
+    }
+    out.flush();
+    if (out != System.out) {
+      out.close();
+    }
+    System.err.println(session.harness.frameHistogram);
+  }
+
+  /**
+   * Injects the input for one frame. Each step of the script targets the
+   * next control in turn: press and drag it, release, click, wheel over it,
+   * then Tab focus forward and back.
+   */
+  private void step(int frame) {
+    if (frame % STEP_FRAMES != 0) {
+      // Let the UI settle for a few frames between steps
+      return;
+    }
+    float x = this.tree.controlX(this.control);
+    float y = this.tree.controlY(this.control);
+    switch ((frame / STEP_FRAMES) % 6) {
+    case 0:
+      this.harness.mousePressed(x, y);
+      break;
+    case 1:
+      this.harness.mouseDragged(x, y - 4).mouseDragged(x, y - 8);
+      break;
+    case 2:
+      this.harness.mouseReleased(x, y - 8);
+      break;
+    case 3:
+      this.harness.click(x, y);
+      break;
+    case 4:
+      this.harness.mouseWheel(x, y, 2);
+      break;
+    case 5:
+      this.harness
+        .key('\t', KeyEvent.VK_TAB, false)
+        .key('\t', KeyEvent.VK_TAB, true);
+      this.control = (this.control + 1) % this.tree.controls;
+      break;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui.component;
+
+import heronarts.p2lx.benchmark.Benchmark;
+import heronarts.p2lx.benchmark.BenchmarkRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * Packing engine colors into the UIGLPointCloud color buffer, either as one
+ * bulk copy when points are drawn in index order, or through the point order
+ * when the cloud has been reordered for culling.
+ */
+public class PointCloudPackingBenchmark extends Benchmark {
+
+  private final boolean reordered;
+
+  private IntBuffer buffer;
+
+  private int[] colors;
+
+  private int[] pointIndex;
+
+  public static void addAll(BenchmarkRunner runner) {
+    runner.add(new PointCloudPackingBenchmark(false));
+    runner.add(new PointCloudPackingBenchmark(true));
+  }
+
+  private PointCloudPackingBenchmark(boolean reordered) {
+    super("UIGLPointCloud.putColors." + (reordered ? "reordered" : "contiguous"));
+    this.reordered = reordered;
+  }
+
+  @Override
+  protected void setup(int size) {
+    this.buffer = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    this.colors = new int[size];
+    this.pointIndex = new int[size];
+    for (int i = 0; i < size; ++i) {
+      this.colors[i] = 0xff000000 | i;
+      this.pointIndex[i] = i;
+    }
+    if (this.reordered) {
+      // Shuffle in blocks, roughly as octree leaves would be
+      Random random = new Random(0);
+      int block = 256;
+      int numBlocks = size / block;
+      for (int b = numBlocks - 1; b > 0; --b) {
+        int other = random.nextInt(b + 1);
+        for (int i = 0; i < block; ++i) {
+          int tmp = this.pointIndex[b * block + i];
+          this.pointIndex[b * block + i] = this.pointIndex[other * block + i];
+          this.pointIndex[other * block + i] = tmp;
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void run() {
+    this.buffer.rewind();
+    UIGLPointCloud.putColors(this.buffer, this.colors, this.pointIndex, this.reordered ? -1 : 0);
+    consume(this.buffer.get(0));
+  }
+
+  @Override
+  protected void teardown() {
+    this.buffer = null;
+    this.colors = null;
+    this.pointIndex = null;
+  }
+}
@@ -2,6 +2,7 @@ uniform mat4 modelview;
 uniform mat4 projection;
 
 attribute vec4 vertex;
+// Packed ARGB, normalized unsigned bytes that arrive in BGRA order
 attribute vec4 color;
 
 varying vec4 vertexColor;
@@ -17,5 +18,5 @@ void main() {
   	attenuation.x + distance * (attenuation.y + distance * attenuation.z)
   );
   gl_PointSize = max(pointSize * att, 1.);
-  vertexColor = color;
+  vertexColor = vec4(color.zyx, 1.);
 }
@@ -37,7 +37,7 @@ class UIEngineControl extends UIWindow {
     y = UIWindow.TITLE_LABEL_HEIGHT;
     new UIButton(4, y, width-8, 20) {
       protected void onToggle(boolean enabled) {
-        lx.engine.setThreaded(enabled);
+        lx.setThreaded(enabled);
         fpsKnob.setEnabled(enabled);
       }
     }
@@ -49,7 +49,7 @@ class UIEngineControl extends UIWindow {
     fpsKnob = new UIKnob(4, y);    
     fpsKnob
     .setParameter(lx.engine.framesPerSecond)
-    .setEnabled(lx.engine.isThreaded())
+    .setEnabled(lx.isThreaded())
     .addToContainer(this);
   }
 }
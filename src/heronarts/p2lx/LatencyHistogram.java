@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+/**
+ * Fixed-size histogram of durations, with buckets spaced logarithmically
+ * so that every recorded value is kept to within about 3% precision from
+ * nanoseconds up to hours. Recording is a couple of shifts and an array
+ * increment, and never allocates.
+ *
+ * Values must be recorded from a single thread. Readers on other threads may
+ * see a snapshot that is slightly behind.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int MAX_SHIFT = 40;
+
+  private static final int NUM_BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+  /**
+   * Name of what this histogram measures
+   */
+  public final String label;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+
+  private volatile long count = 0;
+
+  private long total = 0;
+
+  private long max = 0;
+
+  public LatencyHistogram(String label) {
+    this.label = label;
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(0, value);
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return NUM_BUCKETS - 1;
+    }
+    int sub = (int) (value >>> shift);
+    return (shift + 1) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+  }
+
+  private static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long sub = SUB_BUCKETS + (bucket % SUB_BUCKETS);
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Records a duration
+   *
+   * @param nanos Duration in nanoseconds
+   * @return this
+   */
+  public LatencyHistogram record(long nanos) {
+    ++this.counts[bucket(nanos)];
+    this.total += nanos;
+    if (nanos > this.max) {
+      this.max = nanos;
+    }
+    ++this.count;
+    return this;
+  }
+
+  /**
+   * Clears all recorded values
+   *
+   * @return this
+   */
+  public LatencyHistogram reset() {
+    for (int i = 0; i < this.counts.length; ++i) {
+      this.counts[i] = 0;
+    }
+    this.total = this.max = 0;
+    this.count = 0;
+    return this;
+  }
+
+  /**
+   * Number of recorded values
+   *
+   * @return count
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Largest recorded value
+   *
+   * @return Maximum in nanoseconds
+   */
+  public long getMax() {
+    return this.max;
+  }
+
+  /**
+   * Mean of recorded values
+   *
+   * @return Mean in nanoseconds
+   */
+  public double getMean() {
+    long count = this.count;
+    return (count > 0) ? this.total / (double) count : 0;
+  }
+
+  /**
+   * Value at the given percentile, accurate to the bucket precision
+   *
+   * @param percentile Percentile, from 0 to 100
+   * @return Value in nanoseconds
+   */
+  public long getPercentile(double percentile) {
+    long count = this.count;
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100. * count));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; ++i) {
+      seen += this.counts[i];
+      if (seen >= target) {
+        return Math.min(highestValue(i), this.max);
+      }
+    }
+    return this.max;
+  }
+
+  /**
+   * Median value
+   *
+   * @return p50 in nanoseconds
+   */
+  public long getP50() {
+    return getPercentile(50);
+  }
+
+  /**
+   * 99th percentile value
+   *
+   * @return p99 in nanoseconds
+   */
+  public long getP99() {
+    return getPercentile(99);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s p50=%.2fms p99=%.2fms max=%.2fms n=%d",
+      this.label, getP50() / 1e6, getP99() / 1e6, getMax() / 1e6, getCount());
+  }
+}
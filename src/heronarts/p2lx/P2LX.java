@@ -31,6 +31,7 @@ import heronarts.lx.effect.FlashEffect;
 import heronarts.lx.model.GridModel;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.model.StripModel;
+
 import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
@@ -65,15 +66,14 @@ public class P2LX extends LX {
   public final UI ui;
 
   /**
-   * Internal buffer for colors, owned by Processing animation thread.
+   * Offscreen canvases lent to graphics patterns while they are running.
    */
-  private final int[] buffer;
+  public final P2LXCanvasPool canvasPool;
 
   /**
-   * The current frame's colors, either from the engine or the buffer. Note that
-   * this is a reference to an array.
+   * Colors picked up from the engine for each frame drawn
    */
-  private int[] colors;
+  private final P2LXEngineColors engineColors;
 
   /**
    * Global flash effect.
@@ -86,19 +86,36 @@ public class P2LX extends LX {
   private final DesaturationEffect desaturation;
 
   private final class Flags {
-    public boolean showFramerate = false;
     public boolean keyboardTempo = false;
   }
 
   private final Flags flags = new Flags();
 
+  /**
+   * @deprecated Only holds the last frame, use drawHistogram and engineHistogram
+   */
+  @Deprecated
   public class Timer {
     public long drawNanos = 0;
     public long engineNanos = 0;
   }
 
+  /**
+   * @deprecated Only holds the last frame, use drawHistogram and engineHistogram
+   */
+  @Deprecated
   public final Timer timer = new Timer();
 
+  /**
+   * Time spent in each draw() call
+   */
+  public final LatencyHistogram drawHistogram = new LatencyHistogram("P2LX draw");
+
+  /**
+   * Time spent running the engine or picking up its colors in draw()
+   */
+  public final LatencyHistogram engineHistogram = new LatencyHistogram("Engine copy");
+
   public P2LX(PApplet applet) {
     this(applet, new LXModel());
   }
@@ -114,8 +131,8 @@ public class P2LX extends LX {
   public P2LX(PApplet applet, LXModel model) {
     super(model);
     this.applet = applet;
-    this.buffer = new int[this.total];
-    this.colors = this.engine.renderBuffer();
+    this.canvasPool = new P2LXCanvasPool(applet);
+    this.engineColors = new P2LXEngineColors(this);
 
     setMinimCallback(applet);
 
@@ -123,6 +140,8 @@ public class P2LX extends LX {
     this.flash = new FlashEffect(this);
 
     this.ui = new UI(this);
+    this.ui.addHistogram(this.drawHistogram);
+    this.ui.addHistogram(this.engineHistogram);
 
     applet.colorMode(PConstants.HSB, 360, 100, 100, 100);
 
@@ -169,6 +188,53 @@ public class P2LX extends LX {
     return this;
   }
 
+  /**
+   * Enables or disables triple buffering of the engine colors. When enabled
+   * and the engine is threaded through setThreaded(), the engine thread publishes each completed
+   * frame without blocking, and the Processing thread picks up the latest one
+   * without copying or taking the engine lock. The array returned from
+   * getColors() is then only valid until the next frame is drawn.
+   *
+   * @param tripleBuffered Whether to triple buffer colors from the engine
+   * @return this
+   */
+  public P2LX setTripleBuffered(boolean tripleBuffered) {
+    this.engineColors.setTripleBuffered(tripleBuffered);
+    return this;
+  }
+
+  /**
+   * Starts or stops the engine running on its own thread. Use this rather
+   * than engine.setThreaded(), so that draw() can tell whether the engine is
+   * threaded without taking the engine lock.
+   *
+   * @param threaded Whether to run the engine on its own thread
+   * @return this
+   */
+  public P2LX setThreaded(boolean threaded) {
+    this.engineColors.setThreaded(threaded);
+    return this;
+  }
+
+  /**
+   * Whether the engine is running on its own thread. This does not take the
+   * engine lock once threading has been set through setThreaded().
+   *
+   * @return True if the engine is threaded
+   */
+  public boolean isThreaded() {
+    return this.engineColors.isThreaded();
+  }
+
+  /**
+   * Whether colors are being triple buffered from the engine thread
+   *
+   * @return True if triple buffering is enabled
+   */
+  public boolean isTripleBuffered() {
+    return this.engineColors.isTripleBuffered();
+  }
+
   public final PGraphics getGraphics() {
     return this.applet.g;
   }
@@ -179,7 +245,18 @@ public class P2LX extends LX {
    * @return Array of the current color values
    */
   public final int[] getColors() {
-    return this.colors;
+    return this.engineColors.getColors();
+  }
+
+  /**
+   * Returns a sequence number for the frame held by getColors(). This only
+   * changes when a new frame has been picked up, so consumers may compare it
+   * against the value they last saw to skip work on unchanged frames.
+   *
+   * @return Sequence number of the current color frame
+   */
+  public final long getFrameSequence() {
+    return this.engineColors.getFrameSequence();
   }
 
   /**
@@ -190,29 +267,14 @@ public class P2LX extends LX {
     long drawStart = System.nanoTime();
 
     long engineStart = System.nanoTime();
-    if (this.engine.isThreaded()) {
-      // If the engine is threaded, it is running itself. We just need
-      // to copy its current color buffer into our own in a thread-safe
-      // manner.
-      this.engine.copyBuffer(this.colors = this.buffer);
-    } else {
-      // If the engine is not threaded, then we run it ourselves, and
-      // we can just use its color buffer, as there is no thread contention.
-      this.engine.run();
-      this.colors = this.engine.renderBuffer();
-    }
-    this.timer.engineNanos = System.nanoTime() - engineStart;
-
-    if (this.flags.showFramerate) {
-      if (this.engine.isThreaded()) {
-        PApplet.println("Engine: " + this.engine.frameRate() + " "
-            + "Render: " + this.applet.frameRate);
-      } else {
-        PApplet.println("Framerate: " + this.applet.frameRate);
-      }
-    }
-
-    this.timer.drawNanos = System.nanoTime() - drawStart;
+    this.engineColors.update();
+    long engineNanos = System.nanoTime() - engineStart;
+    this.timer.engineNanos = engineNanos;
+    this.engineHistogram.record(engineNanos);
+
+    long drawNanos = System.nanoTime() - drawStart;
+    this.timer.drawNanos = drawNanos;
+    this.drawHistogram.record(drawNanos);
   }
 
   public void keyEvent(KeyEvent keyEvent) {
@@ -228,7 +290,7 @@ public class P2LX extends LX {
         this.engine.goNext();
         break;
       case 'f':
-        this.flags.showFramerate = false;
+        this.ui.setTimingOverlay(false);
         break;
       case ' ':
         if (this.flags.keyboardTempo) {
@@ -267,7 +329,7 @@ public class P2LX extends LX {
       }
       switch (keyChar) {
       case 'f':
-        this.flags.showFramerate = true;
+        this.ui.setTimingOverlay(true);
         break;
       case 's':
         this.desaturation.enable();
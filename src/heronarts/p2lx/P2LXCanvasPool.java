@@ -0,0 +1,173 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Pool of offscreen canvases shared by graphics patterns. A pattern borrows a
+ * canvas while it is active or transitioning in, and returns it when it goes
+ * inactive, so only the patterns currently running hold a framebuffer. The
+ * contents of a canvas are not preserved across loans.
+ */
+public class P2LXCanvasPool {
+
+  /**
+   * Approximate bytes per pixel held by a canvas: color texture, color
+   * framebuffer and depth/stencil
+   */
+  private static final int BYTES_PER_PIXEL = 12;
+
+  private final PApplet applet;
+
+  private final String renderer;
+
+  private final List<PGraphics> free = new ArrayList<PGraphics>();
+
+  private int allocated = 0;
+
+  private int lent = 0;
+
+  private long allocatedPixels = 0;
+
+  private int maxCanvases = Integer.MAX_VALUE;
+
+  public P2LXCanvasPool(PApplet applet) {
+    this(applet, PConstants.P2D);
+  }
+
+  public P2LXCanvasPool(PApplet applet, String renderer) {
+    this.applet = applet;
+    this.renderer = renderer;
+  }
+
+  /**
+   * Sets the maximum number of canvases that may be allocated at once, lent
+   * out or not. When the cap is reached, free canvases of a different size
+   * are disposed to make room, and if there are none acquire() fails.
+   *
+   * @param maxCanvases Maximum number of canvases
+   * @return this
+   */
+  public synchronized P2LXCanvasPool setMaxCanvases(int maxCanvases) {
+    this.maxCanvases = maxCanvases;
+    while ((this.allocated > this.maxCanvases) && !this.free.isEmpty()) {
+      dispose(this.free.remove(this.free.size() - 1));
+    }
+    return this;
+  }
+
+  public synchronized int getMaxCanvases() {
+    return this.maxCanvases;
+  }
+
+  /**
+   * Borrows a cleared canvas of the given size
+   *
+   * @param width Canvas width
+   * @param height Canvas height
+   * @return Canvas, or null if the pool is at its cap
+   */
+  public synchronized PGraphics acquire(int width, int height) {
+    PGraphics pg = null;
+    for (int i = this.free.size() - 1; i >= 0; --i) {
+      PGraphics candidate = this.free.get(i);
+      if ((candidate.width == width) && (candidate.height == height)) {
+        pg = this.free.remove(i);
+        break;
+      }
+    }
+    if (pg == null) {
+      if ((this.allocated >= this.maxCanvases) && !this.free.isEmpty()) {
+        dispose(this.free.remove(0));
+      }
+      if (this.allocated >= this.maxCanvases) {
+        return null;
+      }
+      pg = this.applet.createGraphics(width, height, this.renderer);
+      ++this.allocated;
+      this.allocatedPixels += width * height;
+    }
+    pg.beginDraw();
+    pg.background(0);
+    pg.endDraw();
+    ++this.lent;
+    return pg;
+  }
+
+  /**
+   * Returns a borrowed canvas to the pool
+   *
+   * @param pg Canvas previously returned by acquire()
+   */
+  public synchronized void release(PGraphics pg) {
+    --this.lent;
+    if (this.allocated > this.maxCanvases) {
+      dispose(pg);
+    } else {
+      this.free.add(pg);
+    }
+  }
+
+  private void dispose(PGraphics pg) {
+    pg.dispose();
+    --this.allocated;
+    this.allocatedPixels -= pg.width * pg.height;
+  }
+
+  /**
+   * Number of canvases allocated, whether lent out or free
+   */
+  public synchronized int getAllocatedCount() {
+    return this.allocated;
+  }
+
+  /**
+   * Number of canvases currently lent to patterns
+   */
+  public synchronized int getLentCount() {
+    return this.lent;
+  }
+
+  /**
+   * Approximate GPU memory held by all allocated canvases
+   *
+   * @return Bytes
+   */
+  public synchronized long getMemoryBytes() {
+    return this.allocatedPixels * BYTES_PER_PIXEL;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("Canvas pool: %d/%d lent, %.1fMB",
+      this.lent, this.allocated, getMemoryBytes() / (1024. * 1024.));
+  }
+}
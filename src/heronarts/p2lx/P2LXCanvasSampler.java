@@ -0,0 +1,166 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+/**
+ * Precomputed table of canvas taps and weights for each point in a model,
+ * used to sample an image of any size into a pattern's colors. Weights are
+ * 16-bit fixed point and sum to one for each point.
+ */
+public class P2LXCanvasSampler {
+
+  private static final int ONE = 1 << 16;
+
+  /**
+   * Below this many taps in total, sampling is not worth splitting up
+   */
+  private static final int MIN_PARALLEL_TAPS = 1 << 15;
+
+  final int taps;
+
+  private final int numPoints;
+
+  private final int[] index;
+
+  private final int[] weight;
+
+  /**
+   * Builds the sample table, placing each point within an image of the given
+   * size by its position in the model bounds
+   *
+   * @param model Model
+   * @param numPoints Number of points in the colors array
+   * @param width Image width
+   * @param height Image height
+   * @param sampling Sampling mode
+   * @param boxSize Width of the square averaged in box mode, in pixels
+   */
+  public P2LXCanvasSampler(LXModel model, int numPoints, int width, int height, P2LXGraphicsPattern.Sampling sampling, int boxSize) {
+    switch (sampling) {
+    case BILINEAR:
+      this.taps = 4;
+      break;
+    case BOX:
+      this.taps = boxSize * boxSize;
+      break;
+    default:
+      this.taps = 1;
+      break;
+    }
+    this.numPoints = numPoints;
+    this.index = new int[numPoints * this.taps];
+    this.weight = new int[numPoints * this.taps];
+
+    for (LXPoint p : model.points) {
+      float u = (model.xRange == 0) ? 0 : (p.x - model.xMin) / model.xRange * (width - 1);
+      float v = (model.yRange == 0) ? 0 : (p.y - model.yMin) / model.yRange * (height - 1);
+      int base = p.index * this.taps;
+      switch (sampling) {
+      case BILINEAR:
+        int x0 = constrain((int) Math.floor(u), width);
+        int y0 = constrain((int) Math.floor(v), height);
+        int x1 = constrain(x0 + 1, width);
+        int y1 = constrain(y0 + 1, height);
+        float fx = u - x0;
+        float fy = v - y0;
+        this.index[base] = y0 * width + x0;
+        this.index[base + 1] = y0 * width + x1;
+        this.index[base + 2] = y1 * width + x0;
+        this.index[base + 3] = y1 * width + x1;
+        this.weight[base] = Math.round((1 - fx) * (1 - fy) * ONE);
+        this.weight[base + 1] = Math.round(fx * (1 - fy) * ONE);
+        this.weight[base + 2] = Math.round((1 - fx) * fy * ONE);
+        this.weight[base + 3] = ONE - this.weight[base] - this.weight[base + 1] - this.weight[base + 2];
+        break;
+      case BOX:
+        int left = Math.round(u) - (boxSize - 1) / 2;
+        int top = Math.round(v) - (boxSize - 1) / 2;
+        int tap = base;
+        for (int y = 0; y < boxSize; ++y) {
+          int row = constrain(top + y, height) * width;
+          for (int x = 0; x < boxSize; ++x) {
+            this.index[tap] = row + constrain(left + x, width);
+            this.weight[tap] = ONE / this.taps;
+            ++tap;
+          }
+        }
+        this.weight[base] += ONE - (ONE / this.taps) * this.taps;
+        break;
+      default:
+        this.index[base] = constrain(Math.round(v), height) * width + constrain(Math.round(u), width);
+        this.weight[base] = ONE;
+        break;
+      }
+    }
+  }
+
+  private static int constrain(int value, int size) {
+    return (value < 0) ? 0 : ((value >= size) ? size - 1 : value);
+  }
+
+  /**
+   * Samples the canvas into the colors array
+   *
+   * @param pixels Canvas pixels
+   * @param colors Point colors
+   * @param parallel Whether to split the work across cores
+   */
+  public void sample(final int[] pixels, final int[] colors, boolean parallel) {
+    if (!parallel || (this.index.length < MIN_PARALLEL_TAPS)) {
+      sample(pixels, colors, 0, this.numPoints);
+      return;
+    }
+    P2LXParallel.run(this.numPoints, new P2LXParallel.Range() {
+      public void run(int from, int to) {
+        sample(pixels, colors, from, to);
+      }
+    });
+  }
+
+  private void sample(int[] pixels, int[] colors, int from, int to) {
+    if (this.taps == 1) {
+      for (int i = from; i < to; ++i) {
+        colors[i] = pixels[this.index[i]];
+      }
+      return;
+    }
+    for (int i = from; i < to; ++i) {
+      int a = 0, r = 0, g = 0, b = 0;
+      int end = (i + 1) * this.taps;
+      for (int t = i * this.taps; t < end; ++t) {
+        int c = pixels[this.index[t]];
+        int w = this.weight[t];
+        a += (c >>> 24) * w;
+        r += ((c >> 16) & 0xff) * w;
+        g += ((c >> 8) & 0xff) * w;
+        b += (c & 0xff) * w;
+      }
+      colors[i] = ((a >>> 16) << 24) | ((r >>> 16) << 16) | ((g >>> 16) << 8) | (b >>> 16);
+    }
+  }
+}
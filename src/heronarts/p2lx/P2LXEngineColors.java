@@ -0,0 +1,198 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import heronarts.lx.LX;
+import heronarts.lx.output.LXOutput;
+
+/**
+ * Picks up the engine's colors on the Processing thread for each frame
+ * drawn, either by running an unthreaded engine, by copying from a threaded
+ * one, or by taking the latest frame it has published into a triple buffer.
+ * This is the engine side of P2LX.draw(), kept apart from the applet so that
+ * it can also be driven headless.
+ */
+class P2LXEngineColors {
+
+  private final LX lx;
+
+  /**
+   * Internal buffer for colors, owned by Processing animation thread.
+   */
+  private final int[] buffer;
+
+  /**
+   * The current frame's colors, either from the engine or the buffer. Note that
+   * this is a reference to an array.
+   */
+  private int[] colors;
+
+  /**
+   * Sequence number of the frame currently held in colors
+   */
+  private long frameSequence = 0;
+
+  /**
+   * Lock-free handoff of frames from the engine thread, only present when
+   * triple buffering has been enabled. It is only added as an engine output
+   * while the engine is threaded.
+   */
+  private TripleBuffer tripleBuffer = null;
+
+  /**
+   * Whether the engine was threaded through setThreaded(). Read by update()
+   * instead of LXEngine.isThreaded(), which locks the engine and so waits
+   * out the whole of any engine frame in progress.
+   */
+  private volatile boolean threaded = false;
+
+  /**
+   * Whether setThreaded() has been called, after which the flag above is
+   * authoritative. LXEngine.isThreaded() still reports true once the engine
+   * thread has been stopped.
+   */
+  private volatile boolean threadedSet = false;
+
+  /**
+   * Engine output that publishes each completed frame into a triple buffer,
+   * for the Processing thread to pick up without taking the engine lock
+   */
+  private class TripleBuffer extends LXOutput {
+
+    private final P2LXTripleBuffer frames = new P2LXTripleBuffer(lx.total);
+
+    private TripleBuffer() {
+      super(lx);
+    }
+
+    @Override
+    protected void onSend(int[] colors) {
+      System.arraycopy(colors, 0, this.frames.getBack(), 0, colors.length);
+      this.frames.publish();
+    }
+  }
+
+  P2LXEngineColors(LX lx) {
+    this.lx = lx;
+    this.buffer = new int[lx.total];
+    this.colors = this.buffer;
+  }
+
+  void setTripleBuffered(boolean tripleBuffered) {
+    if (tripleBuffered && (this.tripleBuffer == null)) {
+      this.tripleBuffer = new TripleBuffer();
+      if (this.threaded) {
+        attachTripleBuffer();
+      }
+    } else if (!tripleBuffered && (this.tripleBuffer != null)) {
+      this.lx.removeOutput(this.tripleBuffer);
+      this.tripleBuffer = null;
+    }
+  }
+
+  boolean isTripleBuffered() {
+    return this.tripleBuffer != null;
+  }
+
+  void setThreaded(boolean threaded) {
+    if (!this.threadedSet) {
+      // Pick up an engine that was threaded directly
+      this.threaded = this.lx.engine.isThreaded();
+      this.threadedSet = true;
+    }
+    if (threaded && !this.threaded) {
+      if (this.tripleBuffer != null) {
+        attachTripleBuffer();
+      }
+      this.threaded = true;
+      this.lx.engine.setThreaded(true);
+    } else if (!threaded && this.threaded) {
+      try {
+        this.lx.engine.setThreaded(false);
+      } catch (NullPointerException npx) {
+        // LXEngine clears its thread reference as the thread exits, which
+        // may happen between interrupting and joining it. The thread has
+        // stopped either way.
+      }
+      this.threaded = false;
+      if (this.tripleBuffer != null) {
+        this.lx.removeOutput(this.tripleBuffer);
+      }
+    }
+  }
+
+  boolean isThreaded() {
+    return this.threadedSet ? this.threaded : this.lx.engine.isThreaded();
+  }
+
+  /**
+   * Adds the triple buffer as an engine output, carrying the current colors
+   * over into its front buffer so that nothing is shown from the engine's
+   * live buffer before the first frame is published
+   */
+  private void attachTripleBuffer() {
+    int[] front = this.tripleBuffer.frames.getFront();
+    System.arraycopy(this.colors, 0, front, 0, front.length);
+    this.colors = front;
+    this.lx.addOutput(this.tripleBuffer);
+  }
+
+  int[] getColors() {
+    return this.colors;
+  }
+
+  long getFrameSequence() {
+    return this.frameSequence;
+  }
+
+  /**
+   * Picks up the colors for the frame about to be drawn
+   */
+  void update() {
+    if (isThreaded()) {
+      if (this.threaded && (this.tripleBuffer != null)) {
+        // The engine publishes its own frames, we just take the latest
+        // complete one if there is anything new.
+        int[] frame = this.tripleBuffer.frames.acquire();
+        if (frame != null) {
+          this.colors = frame;
+          ++this.frameSequence;
+        }
+      } else {
+        // If the engine is threaded, it is running itself. We just need
+        // to copy its current color buffer into our own in a thread-safe
+        // manner.
+        this.lx.engine.copyBuffer(this.colors = this.buffer);
+        ++this.frameSequence;
+      }
+    } else {
+      // If the engine is not threaded, then we run it ourselves, and
+      // we can just use its color buffer, as there is no thread contention.
+      this.lx.engine.run();
+      this.colors = this.lx.engine.renderBuffer();
+      ++this.frameSequence;
+    }
+  }
+}
@@ -24,26 +24,305 @@
 
 package heronarts.p2lx;
 
-import processing.core.PConstants;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL2;
+
 import processing.core.PGraphics;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.PJOGL;
+import processing.opengl.Texture;
 
+/**
+ * A pattern that renders into an offscreen Processing canvas, which is then
+ * copied into the pattern's colors. By default the canvas is the size of the
+ * LX grid and pixels map to points in index order. A canvas of any other size
+ * is sampled at each point's position within the model bounds, which lets
+ * a pattern render at a higher resolution and be filtered down to the model.
+ *
+ * The canvas is borrowed from the {@link P2LXCanvasPool} when the pattern
+ * becomes active and returned when it goes inactive, so its contents do not
+ * persist across activations. Subclasses overriding onActive() or
+ * onInactive() must call the super implementation.
+ */
 public abstract class P2LXGraphicsPattern extends P2LXPattern {
 
-  private final PGraphics pg;
+  private final P2LXCanvasPool canvasPool;
+
+  private final int canvasWidth;
+
+  private final int canvasHeight;
+
+  /**
+   * Canvas borrowed from the pool, null while the pattern is inactive
+   */
+  private PGraphics pg = null;
+
+  /**
+   * How each point samples the canvas
+   */
+  public enum Sampling {
+    /**
+     * Single pixel nearest the point
+     */
+    NEAREST,
+
+    /**
+     * Bilinear interpolation of the four pixels around the point
+     */
+    BILINEAR,
+
+    /**
+     * Average of a square of pixels centered on the point
+     */
+    BOX
+  };
+
+  /**
+   * Sample table for the model, or null if the canvas pixels map directly
+   * to points in index order
+   */
+  private P2LXCanvasSampler sampler = null;
+
+  private boolean parallelSampling = false;
+
+  private boolean asyncReadback = false;
+
+  /**
+   * Two pixel pack buffers. Each frame the canvas texture is read into one
+   * while the other, filled on the previous frame, is mapped and copied.
+   */
+  private int[] pbo = null;
+
+  private int pboSize = 0;
+
+  private int pboWrite = 0;
+
+  private boolean pboPending = false;
+
+  /**
+   * Canvas pixels in row order, staged from an asynchronous read
+   */
+  private int[] readback = null;
 
   protected P2LXGraphicsPattern(P2LX lx) {
+    this(lx, lx.width, lx.height);
+  }
+
+  /**
+   * Creates a pattern with a canvas of the given size. Unless the canvas
+   * matches the LX grid, each point samples the canvas pixel at its
+   * position within the model bounds.
+   *
+   * @param lx LX instance
+   * @param width Canvas width
+   * @param height Canvas height
+   */
+  protected P2LXGraphicsPattern(P2LX lx, int width, int height) {
     super(lx);
-    this.pg = this.applet.createGraphics(lx.width, lx.height, PConstants.P2D);
+    this.canvasPool = lx.canvasPool;
+    this.canvasWidth = width;
+    this.canvasHeight = height;
+    if ((width != lx.width) || (height != lx.height) || (lx.total != width * height)) {
+      setSampling(Sampling.NEAREST);
+    }
+  }
+
+  /**
+   * Sets whether points sample the canvas by their position in the model,
+   * rather than by index. Use this for models that are not a grid.
+   *
+   * @param modelMapping Whether to map by model position
+   * @return this
+   */
+  public P2LXGraphicsPattern setModelMapping(boolean modelMapping) {
+    if (modelMapping) {
+      return setSampling(Sampling.NEAREST);
+    }
+    this.sampler = null;
+    return this;
+  }
+
+  /**
+   * Sets how points sample the canvas by their position in the model. Box
+   * sampling averages over the ratio of the canvas to the LX grid size.
+   *
+   * @param sampling Sampling mode
+   * @return this
+   */
+  public P2LXGraphicsPattern setSampling(Sampling sampling) {
+    int boxSize = Math.max(1, Math.round(Math.max(
+      this.canvasWidth / (float) Math.max(1, this.lx.width),
+      this.canvasHeight / (float) Math.max(1, this.lx.height)
+    )));
+    return setSampling(sampling, boxSize);
+  }
+
+  /**
+   * Sets how points sample the canvas by their position in the model
+   *
+   * @param sampling Sampling mode
+   * @param boxSize Width of the square averaged in box mode, in pixels
+   * @return this
+   */
+  public P2LXGraphicsPattern setSampling(Sampling sampling, int boxSize) {
+    this.sampler = new P2LXCanvasSampler(this.lx.model, this.lx.total, this.canvasWidth, this.canvasHeight, sampling, boxSize);
+    return this;
+  }
+
+  /**
+   * Sets whether sampling the canvas is split across all cores. This only
+   * takes effect for large models or wide filters, where the work outweighs
+   * the cost of handing it off.
+   *
+   * @param parallelSampling Whether to sample in parallel
+   * @return this
+   */
+  public P2LXGraphicsPattern setParallelSampling(boolean parallelSampling) {
+    this.parallelSampling = parallelSampling;
+    return this;
+  }
+
+  /**
+   * Sets whether to read the canvas back asynchronously using pixel buffer
+   * objects. The pattern's colors then lag the canvas by one frame, but the
+   * engine does not stall waiting for the GPU to finish rendering.
+   *
+   * @param asyncReadback Whether to read back asynchronously
+   * @return this
+   */
+  public P2LXGraphicsPattern setAsyncReadback(boolean asyncReadback) {
+    this.asyncReadback = asyncReadback;
+    this.pboPending = false;
+    return this;
+  }
+
+  @Override
+  public void onActive() {
+    super.onActive();
+    acquireCanvas();
+  }
+
+  @Override
+  public void onTransitionStart() {
+    super.onTransitionStart();
+    acquireCanvas();
+  }
+
+  @Override
+  public void onInactive() {
+    super.onInactive();
+    releaseCanvas();
+  }
+
+  private boolean acquireCanvas() {
+    if (this.pg == null) {
+      this.pg = this.canvasPool.acquire(this.canvasWidth, this.canvasHeight);
+      this.pboPending = false;
+    }
+    return this.pg != null;
+  }
+
+  private void releaseCanvas() {
+    if (this.pg != null) {
+      if (this.pbo != null) {
+        PGL pgl = this.pg.beginPGL();
+        ((PJOGL) pgl).gl.glDeleteBuffers(2, this.pbo, 0);
+        this.pg.endPGL();
+        this.pbo = null;
+        this.pboSize = 0;
+      }
+      this.canvasPool.release(this.pg);
+      this.pg = null;
+    }
   }
 
   @Override
   final protected void run(double deltaMs) {
+    if (!acquireCanvas()) {
+      // The pool is at its cap, try again next frame
+      return;
+    }
     this.pg.beginDraw();
     this.run(deltaMs, this.pg);
     this.pg.endDraw();
-    this.pg.loadPixels();
-    for (int i = 0; i < this.lx.total; ++i) {
-      this.colors[i] = this.pg.pixels[i];
+    if (this.asyncReadback && (this.pg instanceof PGraphicsOpenGL)) {
+      readAsync();
+    } else {
+      this.pg.loadPixels();
+      copyPixels(this.pg.pixels);
+    }
+  }
+
+  private void copyPixels(int[] pixels) {
+    if (this.sampler == null) {
+      System.arraycopy(pixels, 0, this.colors, 0, this.lx.total);
+    } else {
+      this.sampler.sample(pixels, this.colors, this.parallelSampling);
+    }
+  }
+
+  private void readAsync() {
+    Texture texture = ((PGraphicsOpenGL) this.pg).getTexture(false);
+    PGL pgl = this.pg.beginPGL();
+    GL2 gl2 = (GL2) ((PJOGL) pgl).gl;
+
+    int size = texture.glWidth * texture.glHeight * 4;
+    if ((this.pbo == null) || (this.pboSize != size)) {
+      if (this.pbo != null) {
+        gl2.glDeleteBuffers(2, this.pbo, 0);
+      }
+      this.pbo = new int[2];
+      gl2.glGenBuffers(2, this.pbo, 0);
+      for (int i = 0; i < 2; ++i) {
+        gl2.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, this.pbo[i]);
+        gl2.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, size, null, GL2.GL_STREAM_READ);
+      }
+      this.pboSize = size;
+      this.pboPending = false;
+      this.readback = new int[this.pg.width * this.pg.height];
+    }
+
+    // Start reading this frame into one buffer
+    gl2.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, this.pbo[this.pboWrite]);
+    pgl.bindTexture(texture.glTarget, texture.glName);
+    gl2.glGetTexImage(texture.glTarget, 0, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+    pgl.bindTexture(texture.glTarget, 0);
+
+    // Copy out the previous frame from the other
+    boolean copied = false;
+    if (this.pboPending) {
+      gl2.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, this.pbo[1 - this.pboWrite]);
+      ByteBuffer mapped = gl2.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+      if (mapped != null) {
+        IntBuffer texels = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+        int width = this.pg.width;
+        int height = this.pg.height;
+        boolean inverted = texture.invertedY();
+        for (int y = 0; y < height; ++y) {
+          int row = inverted ? (height - 1 - y) : y;
+          texels.position(row * texture.glWidth);
+          texels.get(this.readback, y * width, width);
+        }
+        gl2.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+        copied = true;
+      }
+    }
+    gl2.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+    this.pg.endPGL();
+
+    this.pboWrite = 1 - this.pboWrite;
+    this.pboPending = true;
+
+    if (copied) {
+      copyPixels(this.readback);
+    } else {
+      // Nothing read back yet, fall back to a blocking read for this frame
+      this.pg.loadPixels();
+      copyPixels(this.pg.pixels);
     }
   }
 
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared pool of daemon worker threads, one per core, used to split large
+ * per-point loops across cores. The pool is created on first use.
+ */
+public class P2LXParallel {
+
+  /**
+   * Body of a loop over a range of indices
+   */
+  public interface Range {
+    /**
+     * Runs the loop body over part of the range
+     *
+     * @param from First index, inclusive
+     * @param to Last index, exclusive
+     */
+    public void run(int from, int to);
+  }
+
+  private static ExecutorService executor = null;
+
+  private static int numThreads = 1;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+      executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "P2LX worker");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Number of worker threads
+   *
+   * @return Number of threads
+   */
+  public static int getNumThreads() {
+    getExecutor();
+    return numThreads;
+  }
+
+  /**
+   * Splits the range [0, count) into one chunk per core and runs them in
+   * parallel, returning once all have finished. With a single core the loop
+   * just runs on the calling thread.
+   *
+   * @param count Number of indices
+   * @param range Loop body
+   */
+  public static void run(int count, final Range range) {
+    ExecutorService executor = getExecutor();
+    if ((numThreads < 2) || (count < 2)) {
+      range.run(0, count);
+      return;
+    }
+    int chunkSize = (count + numThreads - 1) / numThreads;
+    List<Callable<Void>> chunks = new ArrayList<Callable<Void>>(numThreads);
+    for (int start = 0; start < count; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(count, start + chunkSize);
+      chunks.add(new Callable<Void>() {
+        public Void call() {
+          range.run(from, to);
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> future : executor.invokeAll(chunks)) {
+        future.get();
+      }
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex) {
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer handing complete frames from one producer thread to one
+ * consumer thread. The producer writes into a back buffer that only it owns,
+ * then publishes it by atomically swapping its index with the shared middle
+ * slot. The consumer takes the middle slot in exchange for its front buffer
+ * whenever a fresh frame has been published. Neither side ever copies under
+ * a lock or waits on the other.
+ */
+public class P2LXTripleBuffer {
+
+  private static final int INDEX_MASK = 0x3;
+
+  private static final int FRESH = 0x4;
+
+  private final int[][] buffers = new int[3][];
+
+  private final AtomicInteger middle = new AtomicInteger(1);
+
+  /**
+   * Owned by the producer thread
+   */
+  private int back = 0;
+
+  /**
+   * Owned by the consumer thread
+   */
+  private int front = 2;
+
+  /**
+   * Creates a triple buffer of frames with the given number of pixels
+   *
+   * @param size Number of pixels in each frame
+   */
+  public P2LXTripleBuffer(int size) {
+    for (int i = 0; i < this.buffers.length; ++i) {
+      this.buffers[i] = new int[size];
+    }
+  }
+
+  /**
+   * Producer side. Buffer to write the next frame into.
+   *
+   * @return Back buffer
+   */
+  public int[] getBack() {
+    return this.buffers[this.back];
+  }
+
+  /**
+   * Producer side. Publishes the back buffer as the latest complete frame.
+   */
+  public void publish() {
+    this.back = this.middle.getAndSet(this.back | FRESH) & INDEX_MASK;
+  }
+
+  /**
+   * Consumer side. Swaps in the most recently published frame, if there is
+   * one.
+   *
+   * @return The new frame, or null if none was published since last time
+   */
+  public int[] acquire() {
+    if ((this.middle.get() & FRESH) == 0) {
+      return null;
+    }
+    this.front = this.middle.getAndSet(this.front) & INDEX_MASK;
+    return this.buffers[this.front];
+  }
+
+  /**
+   * Consumer side. The frame most recently acquired, initially blank.
+   *
+   * @return Front buffer
+   */
+  public int[] getFront() {
+    return this.buffers[this.front];
+  }
+}
@@ -26,6 +26,8 @@ package heronarts.p2lx.font;
 
 import heronarts.p2lx.P2LX;
 
+import java.util.Arrays;
+
 import processing.core.PConstants;
 import processing.core.PImage;
 
@@ -38,85 +40,114 @@ import processing.core.PImage;
  */
 public class PixelFont {
 
-  private final static char NULL_CHAR = 0;
+  /**
+   * Height of every glyph, in pixels
+   */
+  public final static int HEIGHT = 5;
+
   private final static int INVALID_CHAR = -1;
 
-  private final PImage alphabet;
+  private final static int WHITE = 0xffffffff;
+
+  private final static int BLACK = 0xff000000;
 
-  private final int[] offsets = {
+  /**
+   * Characters in the order they appear in the alphabet image
+   */
+  private final static String CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ.:-,' ";
+
+  private final static int[] OFFSETS = {
       // A B C D E F G H I J K L M N O P Q R S T U V W X Y Z . : - , ' <END>
       0, 5, 10, 15, 20, 25, 30, 35, 40, 42, 46, 51, 56, 62, 68, 73, 78, 83, 88,
       93, 99, 104, 110, 116, 122, 128, 134, 136, 138, 142, 144, 146, 149 };
 
+  /**
+   * Glyph index for each ASCII character, or INVALID_CHAR
+   */
+  private final int[] glyphIndex = new int[128];
+
+  /**
+   * Width of each glyph in columns
+   */
+  private final int[] glyphWidth = new int[CHARACTERS.length()];
+
+  /**
+   * Index of each glyph's first column in the columns table
+   */
+  private final int[] glyphColumn = new int[CHARACTERS.length()];
+
+  /**
+   * Bit-packed glyph columns, bit y is set if row y of the column is lit
+   */
+  private final byte[] columns;
+
   /**
    * Constructs an instance of the font.
    *
    * @param lx LX
    */
   public PixelFont(P2LX lx) {
-    this.alphabet = lx.applet.loadImage("PixelFont.png");
-    this.alphabet.loadPixels();
-  }
-
-  private boolean isValidCharacter(char c) {
-    return (this.validCharacter(c) > 0);
+    this(lx.applet.loadImage("PixelFont.png"));
   }
 
-  private char validCharacter(char c) {
-    if ((c >= 'a') && (c <= 'z')) {
-      return (char) ('A' + (c - 'a'));
-    } else if ((c >= 'A') && (c <= 'Z')) {
-      return c;
-    }
-    switch (c) {
-    case '.':
-    case ',':
-    case '-':
-    case ':':
-    case '\'':
-    case ' ':
-      return c;
+  /**
+   * Constructs an instance of the font from its alphabet image.
+   *
+   * @param alphabet Image of the glyphs, as in PixelFont.png
+   */
+  public PixelFont(PImage alphabet) {
+    alphabet.loadPixels();
+
+    Arrays.fill(this.glyphIndex, INVALID_CHAR);
+    int numColumns = 0;
+    for (int g = 0; g < CHARACTERS.length(); ++g) {
+      char c = CHARACTERS.charAt(g);
+      this.glyphIndex[c] = g;
+      if ((c >= 'A') && (c <= 'Z')) {
+        this.glyphIndex[c - 'A' + 'a'] = g;
+      }
+      this.glyphColumn[g] = numColumns;
+      this.glyphWidth[g] = OFFSETS[g + 1] - OFFSETS[g] - 1;
+      numColumns += this.glyphWidth[g];
     }
-    return NULL_CHAR;
-  }
 
-  private int characterIndex(char c) {
-    char valid = this.validCharacter(c);
-    if (valid == NULL_CHAR) {
-      return INVALID_CHAR;
-    }
-    switch (valid) {
-    case '.':
-      return 26;
-    case ':':
-      return 27;
-    case '-':
-      return 28;
-    case ',':
-      return 29;
-    case '\'':
-      return 30;
-    case ' ':
-      return 31;
-    default:
-      return valid - 'A';
+    this.columns = new byte[numColumns];
+    for (int g = 0; g < CHARACTERS.length(); ++g) {
+      for (int j = 0; j < this.glyphWidth[g]; ++j) {
+        int bits = 0;
+        for (int y = 0; y < HEIGHT; ++y) {
+          if ((alphabet.pixels[OFFSETS[g] + j + y * alphabet.width] & 0xffffff) != 0) {
+            bits |= 1 << y;
+          }
+        }
+        this.columns[this.glyphColumn[g] + j] = (byte) bits;
+      }
     }
   }
 
-  private int characterOffset(char c) {
-    int index = this.characterIndex(c);
-    if (index == INVALID_CHAR) {
-      return INVALID_CHAR;
-    }
-    return this.offsets[index];
+  private int glyph(char c) {
+    return (c < this.glyphIndex.length) ? this.glyphIndex[c] : INVALID_CHAR;
   }
 
-  private int characterWidth(char c) {
-    int index = this.characterIndex(c);
-    if (index == INVALID_CHAR) {
-      return INVALID_CHAR;
+  /**
+   * Width in pixels of the given string when drawn. Unsupported characters
+   * are skipped.
+   *
+   * @param s String to measure
+   * @return Width in pixels
+   */
+  public int getWidth(CharSequence s) {
+    int width = 0;
+    for (int i = 0; i < s.length(); ++i) {
+      int g = glyph(s.charAt(i));
+      if (g != INVALID_CHAR) {
+        if (i > 0) {
+          ++width;
+        }
+        width += this.glyphWidth[g];
+      }
     }
-    return this.offsets[index + 1] - this.offsets[index] - 1;
+    return width;
   }
 
   /**
@@ -128,42 +159,71 @@ public class PixelFont {
    * @return a new PImage instance with the string
    */
   public PImage drawString(String s) {
-    int width = 0, height = 5;
-    char[] chars = s.toCharArray();
-    for (int i = 0; i < chars.length; ++i) {
-      if (this.isValidCharacter(chars[i])) {
-        if (i > 0) {
-          ++width;
-        }
-        width += this.characterWidth(chars[i]);
-      }
-    }
-
-    PImage image = new PImage(width, height, PConstants.RGB);
+    PImage image = new PImage(getWidth(s), HEIGHT, PConstants.RGB);
     image.loadPixels();
+    drawString(s, image.pixels, image.width, 0, 0);
+    image.updatePixels();
+    return image;
+  }
+
+  /**
+   * Draws a string into a caller-supplied pixel buffer, without allocating.
+   * Letters are full-white and the space between them is black.
+   *
+   * @param s String to draw
+   * @param pixels Pixel buffer, in row order
+   * @param width Width of the pixel buffer
+   * @param x Left edge of the text, which may be off the buffer
+   * @param y Top edge of the text, which may be off the buffer
+   * @return Width of the text in pixels
+   */
+  public int drawString(CharSequence s, int[] pixels, int width, int x, int y) {
+    return drawString(s, pixels, width, x, y, WHITE, BLACK);
+  }
 
-    int xPos = 0;
-    for (int i = 0; i < chars.length; ++i) {
-      if (this.isValidCharacter(chars[i])) {
+  /**
+   * Draws a string into a caller-supplied pixel buffer, without allocating.
+   * Pixels outside the buffer are clipped. Only the text's own box is
+   * written, the rest of the buffer is untouched.
+   *
+   * @param s String to draw
+   * @param pixels Pixel buffer, in row order
+   * @param width Width of the pixel buffer
+   * @param x Left edge of the text, which may be off the buffer
+   * @param y Top edge of the text, which may be off the buffer
+   * @param ink Color of lit pixels
+   * @param paper Color of unlit pixels
+   * @return Width of the text in pixels
+   */
+  public int drawString(CharSequence s, int[] pixels, int width, int x, int y, int ink, int paper) {
+    int height = pixels.length / width;
+    int xPos = x;
+    for (int i = 0; i < s.length(); ++i) {
+      int g = glyph(s.charAt(i));
+      if (g != INVALID_CHAR) {
         if (i > 0) {
-          for (int y = 0; y < image.height; ++y) {
-            image.pixels[xPos + y * image.width] = 0;
-          }
+          drawColumn(0, pixels, width, height, xPos, y, ink, paper);
           ++xPos;
         }
-        int offset = this.characterOffset(chars[i]);
-        int characterWidth = this.characterWidth(chars[i]);
-        for (int j = 0; j < characterWidth; ++j) {
-          for (int y = 0; y < image.height; ++y) {
-            image.pixels[xPos + j + y * image.width] = this.alphabet.pixels[offset
-                + j + y * this.alphabet.width];
-          }
+        int column = this.glyphColumn[g];
+        for (int j = 0; j < this.glyphWidth[g]; ++j) {
+          drawColumn(this.columns[column + j], pixels, width, height, xPos, y, ink, paper);
+          ++xPos;
         }
-        xPos += characterWidth;
       }
     }
+    return xPos - x;
+  }
 
-    image.updatePixels();
-    return image;
+  private void drawColumn(int bits, int[] pixels, int width, int height, int x, int y, int ink, int paper) {
+    if ((x < 0) || (x >= width)) {
+      return;
+    }
+    for (int row = 0; row < HEIGHT; ++row) {
+      int py = y + row;
+      if ((py >= 0) && (py < height)) {
+        pixels[x + py * width] = ((bits & (1 << row)) != 0) ? ink : paper;
+      }
+    }
   }
 }
@@ -25,20 +25,53 @@
 package heronarts.p2lx.font;
 
 import heronarts.p2lx.P2LX;
+import heronarts.p2lx.P2LXParallel;
 import heronarts.p2lx.P2LXPattern;
 import heronarts.lx.color.LXColor;
 import heronarts.lx.modulator.SawLFO;
-import processing.core.PApplet;
-import processing.core.PImage;
 
 /**
  * Example pattern to render a text string using PixelFont.
  */
 public class PixelFontPattern extends P2LXPattern {
 
+  /**
+   * Below this many points, rendering is not worth splitting up
+   */
+  private final static int MIN_PARALLEL_POINTS = 1 << 14;
+
   final private SawLFO hMod = new SawLFO(0, 360, 10000);
   final private SawLFO pMod = new SawLFO(0, 0, 10000);
-  final private PImage image;
+
+  /**
+   * Brightness of each pixel of the rendered text, 0-100, in row order
+   */
+  final private float[] brightness;
+
+  final private int textWidth;
+
+  /**
+   * Column of each point
+   */
+  final private int[] column;
+
+  /**
+   * Offset of each point's row in the brightness array, or -1 if the point
+   * is below the text
+   */
+  final private int[] rowOffset;
+
+  final private P2LXParallel.Range renderRange = new P2LXParallel.Range() {
+    public void run(int from, int to) {
+      render(from, to);
+    }
+  };
+
+  private boolean parallel = false;
+
+  // Per-frame state, set before rendering
+  private double position;
+  private int red, green, blue;
 
   public PixelFontPattern(P2LX lx) {
     this(lx, "The quick brown fox jumped over the lazy dog.");
@@ -46,26 +79,76 @@ public class PixelFontPattern extends P2LXPattern {
 
   public PixelFontPattern(P2LX lx, String s) {
     super(lx);
-    this.image = (new PixelFont(lx)).drawString(s);
+    PixelFont font = new PixelFont(lx);
+    this.textWidth = font.getWidth(s);
+    int[] pixels = new int[this.textWidth * PixelFont.HEIGHT];
+    font.drawString(s, pixels, this.textWidth, 0, 0);
+    this.brightness = new float[pixels.length];
+    for (int i = 0; i < pixels.length; ++i) {
+      this.brightness[i] = LXColor.b(pixels[i]);
+    }
+
+    this.column = new int[lx.total];
+    this.rowOffset = new int[lx.total];
+    for (int i = 0; i < lx.total; ++i) {
+      int row = lx.row(i);
+      this.column[i] = lx.column(i);
+      this.rowOffset[i] = ((row >= 0) && (row < PixelFont.HEIGHT)) ? row * this.textWidth : -1;
+    }
+
     this.addModulator(this.hMod).trigger();
     this.addModulator(
-        this.pMod.setRange(-lx.width, this.image.width, this.image.width * 250))
+        this.pMod.setRange(-lx.width, this.textWidth, this.textWidth * 250))
         .trigger();
   }
 
+  /**
+   * Sets whether to split rendering across all cores. This only takes effect
+   * for displays large enough to outweigh the cost of handing off the work.
+   *
+   * @param parallel Whether to render in parallel
+   * @return this
+   */
+  public PixelFontPattern setParallel(boolean parallel) {
+    this.parallel = parallel;
+    return this;
+  }
+
   @Override
   public void run(double deltaMs) {
-    for (int i = 0; i < this.colors.length; ++i) {
-      double col = this.lx.column(i) + this.pMod.getValue();
+    // Brightness scales the fully bright color linearly
+    int color = LXColor.hsb(this.hMod.getValue(), 100., 100.);
+    this.red = (color >> 16) & 0xff;
+    this.green = (color >> 8) & 0xff;
+    this.blue = color & 0xff;
+    this.position = this.pMod.getValue();
+    if (this.parallel && (this.colors.length >= MIN_PARALLEL_POINTS)) {
+      P2LXParallel.run(this.colors.length, this.renderRange);
+    } else {
+      render(0, this.colors.length);
+    }
+  }
+
+  private float brightnessAt(int rowOffset, int x) {
+    return ((x < 0) || (x >= this.textWidth)) ? 0 : this.brightness[rowOffset + x];
+  }
+
+  private void render(int from, int to) {
+    for (int i = from; i < to; ++i) {
+      int rowOffset = this.rowOffset[i];
+      if (rowOffset < 0) {
+        this.colors[i] = 0xff000000;
+        continue;
+      }
+      double col = this.column[i] + this.position;
       int floor = (int) Math.floor(col);
-      int ceil = (int) Math.ceil(col);
-      float b1 = this.applet
-          .brightness(this.image.get(floor, this.lx.row(i)));
-      float b2 = this.applet
-          .brightness(this.image.get(ceil, this.lx.row(i)));
-
-      this.colors[i] = LXColor.hsb(this.hMod.getValue(), 100.,
-          PApplet.lerp(b1, b2, (float) (col - floor)));
+      float b1 = brightnessAt(rowOffset, floor);
+      float b2 = brightnessAt(rowOffset, floor + 1);
+      float b = (b1 + (b2 - b1) * (float) (col - floor)) / 100.f;
+      this.colors[i] = 0xff000000 |
+        ((int) (this.red * b + .5f) << 16) |
+        ((int) (this.green * b + .5f) << 8) |
+        (int) (this.blue * b + .5f);
     }
   }
 }
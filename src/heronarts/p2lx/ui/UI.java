@@ -25,16 +25,21 @@
 package heronarts.p2lx.ui;
 
 import heronarts.lx.LXLoopTask;
+import heronarts.p2lx.LatencyHistogram;
 import heronarts.p2lx.P2LX;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
 import processing.event.Event;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
+import processing.opengl.PGraphicsOpenGL;
 
 /**
  * Top-level container for all overlay UI elements.
@@ -45,6 +50,22 @@ public class UI {
 
   private class UIRoot extends UIObject implements UI2dContainer {
 
+    /**
+     * Whether tabNext and tabPrev are up to date on every object in the tree
+     */
+    private volatile boolean tabOrderValid = false;
+
+    /**
+     * Incremented on every rebuild of the tab order, objects stamped with an
+     * older version are no longer in the visible tree
+     */
+    private int tabOrderVersion = 0;
+
+    /**
+     * Visible objects in depth-first order, reused across rebuilds
+     */
+    private final List<UIObject> tabOrder = new ArrayList<UIObject>();
+
     private UIRoot() {
       this.ui = UI.this;
     }
@@ -82,9 +103,75 @@ public class UI {
       return currentFocus;
     }
 
+    /**
+     * Flattens the visible tree in depth-first order and links every object
+     * to the focusable objects before and after it, wrapping around at the
+     * ends. This gives the same targets as searching the tree from each
+     * object, so Tab is a single lookup until the tree next changes.
+     */
+    private void buildTabOrder() {
+      this.tabOrderValid = true;
+      int version = ++this.tabOrderVersion;
+      List<UIObject> order = this.tabOrder;
+      order.clear();
+      addTabOrder(this, order);
+
+      UIObject first = null;
+      UIObject last = null;
+      for (UIObject object : order) {
+        if (object instanceof UITabFocus) {
+          if (first == null) {
+            first = object;
+          }
+          last = object;
+        }
+      }
+
+      UIObject prev = last;
+      for (UIObject object : order) {
+        object.tabPrev = prev;
+        object.tabOrderVersion = version;
+        if (object instanceof UITabFocus) {
+          prev = object;
+        }
+      }
+      UIObject next = first;
+      for (int i = order.size() - 1; i >= 0; --i) {
+        UIObject object = order.get(i);
+        object.tabNext = next;
+        if (object instanceof UITabFocus) {
+          next = object;
+        }
+      }
+      order.clear();
+    }
+
+    private void addTabOrder(UIObject object, List<UIObject> order) {
+      order.add(object);
+      for (UIObject child : object.children) {
+        if (child.isVisible()) {
+          addTabOrder(child, order);
+        }
+      }
+    }
+
+    /**
+     * Whether an object's tab links are current. Objects that have been
+     * hidden or removed since the last rebuild fall back to searching.
+     */
+    private boolean inTabOrder(UIObject focus) {
+      if (!this.tabOrderValid) {
+        buildTabOrder();
+      }
+      return focus.tabOrderVersion == this.tabOrderVersion;
+    }
+
     private UIObject findNextFocusable() {
       // Identify the deepest focused object
       UIObject focus = findCurrentFocus();
+      if (inTabOrder(focus)) {
+        return focus.tabNext;
+      }
 
       // Check if it has a child that is eligible for focus
       UIObject focusableChild = findNextFocusableChild(focus, 0);
@@ -125,6 +212,9 @@ public class UI {
     private UIObject findPrevFocusable() {
       // Identify the deepest focused object
       UIObject focus = findCurrentFocus();
+      if (inTabOrder(focus)) {
+        return focus.tabPrev;
+      }
 
       // Check its previous siblings, depth-first
       while (focus.parent != null) {
@@ -161,38 +251,72 @@ public class UI {
   }
 
   /**
-   * Redraw may be called from any thread
+   * Redraw may be called from any thread. Components waiting for a redraw
+   * form a lock-free intrusive stack through UI2dComponent.redrawNext, and
+   * each is only ever pushed once until the animation thread takes it.
    */
-  private final List<UI2dComponent> otherThreadRedrawList =
-    Collections.synchronizedList(new ArrayList<UI2dComponent>());
+  private final AtomicReference<UI2dComponent> redrawStack =
+    new AtomicReference<UI2dComponent>(null);
 
   /**
-   * Objects to redraw on current pass thru animation thread
+   * Capacity of the input event queue
    */
-  private final List<UI2dComponent> localThreadRedrawList =
-    new ArrayList<UI2dComponent>();
+  private static final int EVENT_QUEUE_SIZE = 1024;
 
   /**
-   * Input events coming from the event thread
+   * Input events coming from the event thread, consumed by the engine thread
    */
-  private final List<Event> eventThreadInputEventQueue =
-    Collections.synchronizedList(new ArrayList<Event>());
+  private final UIEventQueue eventQueue = new UIEventQueue(EVENT_QUEUE_SIZE);
 
   /**
-   * Events on the local processing thread
+   * @deprecated Only holds the last frame, use drawHistogram
    */
-  private final List<Event> localThreadInputEvents = new ArrayList<Event>();
-
+  @Deprecated
   public class Timer {
     public long drawNanos = 0;
   }
 
+  /**
+   * @deprecated Only holds the last frame, use drawHistogram
+   */
+  @Deprecated
   public final Timer timer = new Timer();
 
+  /**
+   * Time spent in each UI draw pass, including redraw marking
+   */
+  public final LatencyHistogram drawHistogram = new LatencyHistogram("UI draw");
+
+  /**
+   * All timing histograms registered with this UI, in display order
+   */
+  private final List<LatencyHistogram> histograms =
+    new CopyOnWriteArrayList<LatencyHistogram>();
+
+  private boolean showTimingOverlay = false;
+
+  private boolean nativeContexts = false;
+
+  /**
+   * Tasks run on the UI thread at the start of each draw pass
+   */
+  private final List<LXLoopTask> loopTasks =
+    new CopyOnWriteArrayList<LXLoopTask>();
+
+  private long lastDrawNanos = -1;
+
   private final P2LX lx;
 
+  /**
+   * The sketch this UI is drawn in, or null if it draws offscreen
+   */
   final PApplet applet;
 
+  /**
+   * Offscreen surface drawn into when there is no sketch
+   */
+  private final PGraphics surface;
+
   private UIRoot root;
 
   /**
@@ -223,24 +347,202 @@ public class UI {
     this(applet, null);
   }
 
+  /**
+   * Creates a UI that draws into an offscreen surface, with no sketch or
+   * display. Nothing is registered with Processing, so the owner calls
+   * draw() between beginDraw() and endDraw() on the surface, and passes
+   * input in through mouseEvent() and keyEvent(). The surface should be a
+   * {@link UIOffscreenGraphics}, and 2d contexts are created as the same.
+   *
+   * @param surface Graphics to draw the UI into
+   */
+  public UI(PGraphics surface) {
+    this(null, null, surface);
+  }
+
   private UI(PApplet applet, P2LX lx) {
+    this(applet, lx, null);
+  }
+
+  private UI(PApplet applet, P2LX lx, PGraphics surface) {
     this.lx = lx;
     this.applet = applet;
+    this.surface = surface;
     this.theme = new UITheme(applet);
     this.root = new UIRoot();
-    applet.registerMethod("draw", this);
-    applet.registerMethod("keyEvent", this);
-    applet.registerMethod("mouseEvent", this);
+    addHistogram(this.drawHistogram);
+    if (applet != null) {
+      applet.registerMethod("draw", this);
+      applet.registerMethod("keyEvent", this);
+      applet.registerMethod("mouseEvent", this);
+    }
     if (lx != null) {
       lx.engine.addLoopTask(new EngineUILoopTask());
     }
     UI.instance = this;
   }
 
+  /**
+   * Marks the tab order as needing to be rebuilt, after objects have been
+   * added, removed, reordered or shown or hidden
+   */
+  void invalidateTabOrder() {
+    this.root.tabOrderValid = false;
+  }
+
   public static UI get() {
     return UI.instance;
   }
 
+  /**
+   * Registers a timing histogram, so that it shows up in the timing overlay
+   * and getHistograms()
+   *
+   * @param histogram Histogram
+   * @return this
+   */
+  public UI addHistogram(LatencyHistogram histogram) {
+    this.histograms.add(histogram);
+    return this;
+  }
+
+  /**
+   * Unregisters a timing histogram
+   *
+   * @param histogram Histogram
+   * @return this
+   */
+  public UI removeHistogram(LatencyHistogram histogram) {
+    this.histograms.remove(histogram);
+    return this;
+  }
+
+  /**
+   * All registered timing histograms
+   *
+   * @return Histograms
+   */
+  public List<LatencyHistogram> getHistograms() {
+    return this.histograms;
+  }
+
+  /**
+   * Clears all registered timing histograms
+   *
+   * @return this
+   */
+  public UI resetHistograms() {
+    for (LatencyHistogram histogram : this.histograms) {
+      histogram.reset();
+    }
+    return this;
+  }
+
+  /**
+   * Sets whether to draw an overlay of the registered timing histograms.
+   * P2LX shows it while the 'f' key is held.
+   *
+   * @param showTimingOverlay Whether to show the overlay
+   * @return this
+   */
+  public UI setTimingOverlay(boolean showTimingOverlay) {
+    this.showTimingOverlay = showTimingOverlay;
+    return this;
+  }
+
+  /**
+   * Sets whether 2d contexts created after this call should render into an
+   * offscreen surface of the sketch's own renderer, when that renderer is
+   * OpenGL. A native context is drawn as a single textured quad, rather than
+   * being rasterized on the CPU, read back and uploaded each time it changes.
+   * Text and stroke rendering may differ slightly from JAVA2D.
+   *
+   * @param nativeContexts Whether to use native offscreen surfaces
+   * @return this
+   */
+  public UI setNativeContexts(boolean nativeContexts) {
+    this.nativeContexts = nativeContexts;
+    return this;
+  }
+
+  /**
+   * Renderer that new 2d contexts should be created with
+   *
+   * @return Renderer name
+   */
+  String getContextRenderer() {
+    if (this.nativeContexts && (getSurface() instanceof PGraphicsOpenGL)) {
+      return PConstants.P2D;
+    }
+    return PConstants.JAVA2D;
+  }
+
+  /**
+   * Creates the offscreen buffer for a 2d context
+   *
+   * @param width Width
+   * @param height Height
+   * @return Graphics buffer
+   */
+  PGraphics createGraphics(int width, int height) {
+    if (this.applet != null) {
+      return this.applet.createGraphics(width, height, getContextRenderer());
+    }
+    return new UIOffscreenGraphics(width, height);
+  }
+
+  /**
+   * The graphics the UI is drawn into, either the sketch's or the offscreen
+   * surface
+   *
+   * @return Graphics
+   */
+  public PGraphics getSurface() {
+    return (this.applet != null) ? this.applet.g : this.surface;
+  }
+
+  /**
+   * Width of the surface the UI is drawn into
+   *
+   * @return Width
+   */
+  public int getWidth() {
+    return getSurface().width;
+  }
+
+  /**
+   * Height of the surface the UI is drawn into
+   *
+   * @return Height
+   */
+  public int getHeight() {
+    return getSurface().height;
+  }
+
+  /**
+   * Adds a task to be run on the UI thread once per frame, before redraws
+   * are processed. Components that animate can use this to request redraws
+   * at their own rate.
+   *
+   * @param task Task to run each UI frame
+   * @return this
+   */
+  public UI addLoopTask(LXLoopTask task) {
+    this.loopTasks.add(task);
+    return this;
+  }
+
+  /**
+   * Removes a task that was run each UI frame
+   *
+   * @param task Task to remove
+   * @return this
+   */
+  public UI removeLoopTask(LXLoopTask task) {
+    this.loopTasks.remove(task);
+    return this;
+  }
+
   /**
    * Add a 2d context to this UI
    *
@@ -274,15 +576,30 @@ public class UI {
     this.root.children.add(layer);
     layer.parent = this.root;
     layer.setUI(this);
+    addHistogram(layer.drawHistogram);
+    invalidateTabOrder();
     return this;
   }
 
+  /**
+   * Remove a 3d context from this UI
+   *
+   * @param layer 3d context
+   * @return this UI
+   */
   public UI removeLayer(UI3dContext layer) {
     if (layer.parent != this.root) {
       throw new IllegalStateException("Cannot remove 3d layer which is not present");
     }
+    this.lx.engine.removeLoopTask(layer);
     this.root.children.remove(layer);
     layer.parent = null;
+    removeHistogram(layer.drawHistogram);
+    // Lets the layer's components unregister anything they added
+    for (UIObject child : layer.children) {
+      child.setUI(null);
+    }
+    invalidateTabOrder();
     return this;
   }
 
@@ -295,11 +612,18 @@ public class UI {
   public UI bringToTop(UI2dContext layer) {
     this.root.children.remove(layer);
     this.root.children.add(layer);
+    invalidateTabOrder();
     return this;
   }
 
   void redraw(UI2dComponent object) {
-    this.otherThreadRedrawList.add(object);
+    if (object.redrawQueued.compareAndSet(false, true)) {
+      UI2dComponent head;
+      do {
+        head = this.redrawStack.get();
+        object.redrawNext = head;
+      } while (!this.redrawStack.compareAndSet(head, object));
+    }
   }
 
   /**
@@ -308,24 +632,91 @@ public class UI {
   public final void draw() {
     long drawStart = System.nanoTime();
 
-    // Iterate through all objects that need redraw state marked
-    this.localThreadRedrawList.clear();
-    synchronized (this.otherThreadRedrawList) {
-      this.localThreadRedrawList.addAll(this.otherThreadRedrawList);
-      this.otherThreadRedrawList.clear();
+    // Run UI loop tasks, which may request redraws
+    double deltaMs = (this.lastDrawNanos < 0) ? 0 : (drawStart - this.lastDrawNanos) / 1000000.;
+    this.lastDrawNanos = drawStart;
+    for (LXLoopTask task : this.loopTasks) {
+      task.loop(deltaMs);
     }
-    for (UI2dComponent object : this.localThreadRedrawList) {
+
+    // Iterate through all objects that need redraw state marked
+    UI2dComponent object = this.redrawStack.getAndSet(null);
+    while (object != null) {
+      UI2dComponent next = object.redrawNext;
+      object.redrawNext = null;
+      // Clear the flag first, so that a redraw requested from here on
+      // is queued again for the next frame
+      object.redrawQueued.set(false);
       object._redraw();
+      object = next;
     }
 
     // Draw from the root
-    this.root.draw(this, this.applet.g);
+    PGraphics pg = getSurface();
+    this.root.draw(this, pg);
+
+    long drawNanos = System.nanoTime() - drawStart;
+    this.timer.drawNanos = drawNanos;
+    this.drawHistogram.record(drawNanos);
 
-    this.timer.drawNanos = System.nanoTime() - drawStart;
+    if (this.showTimingOverlay) {
+      drawTimingOverlay(pg);
+    }
+  }
+
+  private static final int TIMING_OVERLAY_LINE_HEIGHT = 14;
+
+  private void drawTimingOverlay(PGraphics pg) {
+    int height = TIMING_OVERLAY_LINE_HEIGHT * (this.histograms.size() + 1) + 8;
+    pg.noStroke();
+    pg.fill(0xcc000000);
+    pg.rect(0, 0, 420, height);
+    pg.fill(this.WHITE);
+    pg.textFont(this.theme.getControlFont());
+    pg.textAlign(PConstants.LEFT, PConstants.TOP);
+    int y = 4;
+    pg.text("p50 / p99 / max (ms)", 4, y);
+    for (LatencyHistogram histogram : this.histograms) {
+      y += TIMING_OVERLAY_LINE_HEIGHT;
+      pg.text(histogram.label, 4, y);
+      pg.text(String.format("%.2f / %.2f / %.2f",
+        histogram.getP50() / 1e6,
+        histogram.getP99() / 1e6,
+        histogram.getMax() / 1e6), 240, y);
+    }
   }
 
   private boolean isThreaded() {
-    return (this.lx != null) && (this.lx.engine.isThreaded());
+    return (this.lx != null) && this.lx.isThreaded();
+  }
+
+  /**
+   * Number of input events waiting to be processed by the engine thread
+   *
+   * @return Event queue depth
+   */
+  public int getEventQueueDepth() {
+    return this.eventQueue.depth();
+  }
+
+  /**
+   * Number of drag, move and wheel events dropped because the queue was
+   * backed up. Presses, releases, clicks and key events are never dropped.
+   *
+   * @return Dropped event count
+   */
+  public long getDroppedEventCount() {
+    return this.eventQueue.getDropped();
+  }
+
+  /**
+   * Number of drag and wheel events merged into a following event of the
+   * same kind
+   *
+   * @return Coalesced event count
+   */
+  public long getCoalescedEventCount() {
+    return this.eventQueue.getCoalesced();
   }
 
   private class EngineUILoopTask implements LXLoopTask {
@@ -335,14 +726,34 @@ public class UI {
       // This is invoked on the LXEngine thread, which may be different
       // from the Processing Animation thread. Events need to be
       // processed on that thread to avoid threading bugs
-      localThreadInputEvents.clear();
-      synchronized (eventThreadInputEventQueue) {
-        localThreadInputEvents.addAll(eventThreadInputEventQueue);
-        eventThreadInputEventQueue.clear();
-      }
-      for (Event event : localThreadInputEvents) {
+      Event event;
+      while ((event = eventQueue.poll()) != null) {
         if (event instanceof KeyEvent) {
           _keyEvent((KeyEvent) event);
+        } else if (UIEventQueue.isDrag(event)) {
+          // Only the latest drag position matters, the delta is tracked
+          // from the previous one we actually processed
+          while (UIEventQueue.isDrag(eventQueue.peek())) {
+            event = eventQueue.poll();
+            eventQueue.coalesced();
+          }
+          _mouseEvent((MouseEvent) event);
+        } else if (UIEventQueue.isMove(event)) {
+          // Likewise hover only depends on the latest position
+          while (UIEventQueue.isMove(eventQueue.peek())) {
+            event = eventQueue.poll();
+            eventQueue.coalesced();
+          }
+          _mouseEvent((MouseEvent) event);
+        } else if (UIEventQueue.isWheel(event)) {
+          // Sum up consecutive wheel movements
+          int count = ((MouseEvent) event).getCount();
+          while (UIEventQueue.isWheel(eventQueue.peek())) {
+            event = eventQueue.poll();
+            count += ((MouseEvent) event).getCount();
+            eventQueue.coalesced();
+          }
+          _mouseWheel((MouseEvent) event, count);
         } else if (event instanceof MouseEvent) {
           _mouseEvent((MouseEvent) event);
         }
@@ -352,7 +763,7 @@ public class UI {
 
   public void mouseEvent(MouseEvent mouseEvent) {
     if (isThreaded()) {
-      this.eventThreadInputEventQueue.add(mouseEvent);
+      this.eventQueue.offer(mouseEvent);
     } else {
       _mouseEvent(mouseEvent);
     }
@@ -363,7 +774,7 @@ public class UI {
   private void _mouseEvent(MouseEvent mouseEvent) {
     switch (mouseEvent.getAction()) {
     case MouseEvent.WHEEL:
-      this.root.mouseWheel(mouseEvent, mouseEvent.getX(), mouseEvent.getY(), mouseEvent.getCount());
+      _mouseWheel(mouseEvent, mouseEvent.getCount());
       return;
     case MouseEvent.PRESS:
       this.pmx = mouseEvent.getX();
@@ -376,6 +787,9 @@ public class UI {
     case processing.event.MouseEvent.CLICK:
       this.root.mouseClicked(mouseEvent, mouseEvent.getX(), mouseEvent.getY());
       break;
+    case MouseEvent.MOVE:
+      this.root.mouseMoved(mouseEvent, mouseEvent.getX(), mouseEvent.getY());
+      break;
     case processing.event.MouseEvent.DRAG:
       float mx = mouseEvent.getX();
       float my = mouseEvent.getY();
@@ -386,9 +800,13 @@ public class UI {
     }
   }
 
+  private void _mouseWheel(MouseEvent mouseEvent, int count) {
+    this.root.mouseWheel(mouseEvent, mouseEvent.getX(), mouseEvent.getY(), count);
+  }
+
   public void keyEvent(KeyEvent keyEvent) {
     if (isThreaded()) {
-      this.eventThreadInputEventQueue.add(keyEvent);
+      this.eventQueue.offer(keyEvent);
     } else {
       _keyEvent(keyEvent);
     }
@@ -24,6 +24,8 @@
 
 package heronarts.p2lx.ui;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import processing.core.PGraphics;
 
 public abstract class UI2dComponent extends UIObject {
@@ -66,6 +68,25 @@ public abstract class UI2dComponent extends UIObject {
 
   boolean childNeedsRedraw = true;
 
+  /**
+   * Whether this component is already waiting in the UI's redraw queue
+   */
+  final AtomicBoolean redrawQueued = new AtomicBoolean(false);
+
+  /**
+   * Next component in the UI's redraw queue
+   */
+  UI2dComponent redrawNext = null;
+
+  /**
+   * Position in the parent's hit index, see {@link UIHitIndex}
+   */
+  boolean hitIndexed = false;
+
+  int hitOrder = 0;
+
+  int hitCol0, hitRow0, hitCol1, hitRow1;
+
   protected UI2dComponent() {
     this(0, 0, 0, 0);
   }
@@ -162,6 +183,7 @@ public abstract class UI2dComponent extends UIObject {
     if ((this.x != x) || (this.y != y)) {
       this.x = x;
       this.y = y;
+      updateHitIndex();
       redrawContainer();
     }
     return this;
@@ -179,11 +201,43 @@ public abstract class UI2dComponent extends UIObject {
       this.width = width;
       this.height = height;
       onResize();
+      updateHitIndex();
       redrawContainer();
     }
     return this;
   }
 
+  private void updateHitIndex() {
+    if ((this.parent != null) && (this.parent.hitIndex != null)) {
+      this.parent.hitIndex.update(this);
+    }
+  }
+
+  /**
+   * Sets whether mouse events find the child under the cursor through a
+   * spatial index of the children's bounds, rather than testing each child
+   * in turn. This is worthwhile for containers holding many children, so
+   * long as no child overrides contains() to reach outside of its bounds.
+   *
+   * @param hitIndex Whether to index the children
+   * @return this
+   */
+  public UI2dComponent setHitIndex(boolean hitIndex) {
+    if (hitIndex && (this.hitIndex == null)) {
+      UIHitIndex index = new UIHitIndex(this.width, this.height);
+      for (UIObject child : this.children) {
+        index.add((UI2dComponent) child);
+      }
+      this.hitIndex = index;
+    } else if (!hitIndex && (this.hitIndex != null)) {
+      for (UIObject child : this.children) {
+        ((UI2dComponent) child).hitIndexed = false;
+      }
+      this.hitIndex = null;
+    }
+    return this;
+  }
+
   /**
    * Subclasses may override this method, invoked when the component is resized
    */
@@ -319,6 +373,10 @@ public abstract class UI2dComponent extends UIObject {
       throw new IllegalStateException("Cannot remove parentless UIObject from container");
     }
     this.parent.children.remove(this);
+    if (this.parent.hitIndex != null) {
+      this.parent.hitIndex.remove(this);
+    }
+    invalidateTabOrder();
     redrawContainer();
     this.parent = null;
     return this;
@@ -337,8 +395,12 @@ public abstract class UI2dComponent extends UIObject {
     }
     UIObject containerObject = (UIObject) container;
     containerObject.children.add(this);
+    if (containerObject.hitIndex != null) {
+      containerObject.hitIndex.add(this);
+    }
     this.parent = containerObject;
     setUI(containerObject.ui);
+    invalidateTabOrder();
     redraw();
     return this;
   }
@@ -365,11 +427,24 @@ public abstract class UI2dComponent extends UIObject {
     // Mark object and children as needing redraw
     _redrawChildren();
 
-    // Mark parent containers as needing a child redrawn
+    // Mark parent containers as needing a child redrawn, and add our
+    // bounds to the dirty region of every context we're drawn into
+    if (this instanceof UI2dContext) {
+      ((UI2dContext) this).addDirtyRect(0, 0, this.width, this.height);
+    }
+    float dx = this.x;
+    float dy = this.y;
     UIObject p = this.parent;
     while ((p != null) && (p instanceof UI2dComponent)) {
       UI2dComponent p2d = (UI2dComponent) p;
       p2d.childNeedsRedraw = true;
+      dx += p2d.scrollX;
+      dy += p2d.scrollY;
+      if (p2d instanceof UI2dContext) {
+        ((UI2dContext) p2d).addDirtyRect(dx, dy, this.width, this.height);
+      }
+      dx += p2d.x;
+      dy += p2d.y;
       p = p2d.parent;
     }
   }
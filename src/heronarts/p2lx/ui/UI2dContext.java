@@ -24,13 +24,18 @@
 
 package heronarts.p2lx.ui;
 
-import processing.core.PConstants;
+import heronarts.p2lx.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import processing.core.PGraphics;
 
 /**
  * A UIContext is a container that owns a graphics buffer. This buffer is
  * persistent across frames and is only redrawn as necessary. It is simply
- * bitmapped onto the UI that is a part of.
+ * bitmapped onto the UI that is a part of. On an OpenGL sketch the buffer's
+ * texture is only re-uploaded in frames where it was redrawn, or the buffer
+ * may be a native offscreen surface, see {@link UI#setNativeContexts(boolean)}.
  */
 public class UI2dContext extends UI2dComponent implements UI2dContainer {
 
@@ -39,6 +44,35 @@ public class UI2dContext extends UI2dComponent implements UI2dContainer {
    */
   private final PGraphics pg;
 
+  /**
+   * Number of contexts created, used to tell their histograms apart
+   */
+  private static final AtomicInteger contextCount = new AtomicInteger(0);
+
+  /**
+   * Time spent rendering into the offscreen graphics buffer. Registered with
+   * the UI while this context is in a container.
+   */
+  public final LatencyHistogram renderHistogram;
+
+  /**
+   * Bounds of everything redrawn since the last render, in this context's
+   * coordinate space
+   */
+  private boolean hasDirtyRect = false;
+
+  private float dirtyX0, dirtyY0, dirtyX1, dirtyY1;
+
+  private boolean skipUnchangedBlit = false;
+
+  /**
+   * Whether the buffer has been rendered since it was last drawn to the
+   * parent surface
+   */
+  private boolean changedSinceBlit = true;
+
+  private float blitX, blitY;
+
   /**
    * Constructs a new UI2dContext
    *
@@ -50,8 +84,60 @@ public class UI2dContext extends UI2dComponent implements UI2dContainer {
    */
   public UI2dContext(UI ui, float x, float y, float w, float h) {
     super(x, y, w, h);
-    this.pg = ui.applet.createGraphics((int) w, (int) h, PConstants.JAVA2D);
+    this.pg = ui.createGraphics((int) w, (int) h);
     this.pg.smooth();
+    this.renderHistogram = new LatencyHistogram(UI.uiClassName(this, null) + " #" + contextCount.incrementAndGet() + " render");
+  }
+
+  @Override
+  public UI2dComponent addToContainer(UI2dContainer container) {
+    super.addToContainer(container);
+    if (this.ui != null) {
+      this.ui.addHistogram(this.renderHistogram);
+    }
+    return this;
+  }
+
+  @Override
+  public UI2dComponent removeFromContainer() {
+    super.removeFromContainer();
+    if (this.ui != null) {
+      this.ui.removeHistogram(this.renderHistogram);
+    }
+    return this;
+  }
+
+  /**
+   * Sets whether to skip drawing this context onto the main surface in
+   * frames when neither its contents nor its position have changed. This is
+   * only safe if the sketch does not clear the area beneath this context
+   * each frame, for instance by calling background() in draw().
+   *
+   * @param skipUnchangedBlit Whether to skip redundant drawing
+   * @return this
+   */
+  public UI2dContext setSkipUnchangedBlit(boolean skipUnchangedBlit) {
+    this.skipUnchangedBlit = skipUnchangedBlit;
+    this.changedSinceBlit = true;
+    return this;
+  }
+
+  /**
+   * Adds a region to be repainted on the next render
+   */
+  void addDirtyRect(float x, float y, float w, float h) {
+    if (this.hasDirtyRect) {
+      this.dirtyX0 = Math.min(this.dirtyX0, x);
+      this.dirtyY0 = Math.min(this.dirtyY0, y);
+      this.dirtyX1 = Math.max(this.dirtyX1, x + w);
+      this.dirtyY1 = Math.max(this.dirtyY1, y + h);
+    } else {
+      this.hasDirtyRect = true;
+      this.dirtyX0 = x;
+      this.dirtyY0 = y;
+      this.dirtyX1 = x + w;
+      this.dirtyY1 = y + h;
+    }
   }
 
   @Override
@@ -65,11 +151,33 @@ public class UI2dContext extends UI2dComponent implements UI2dContainer {
       return;
     }
     if (this.needsRedraw || this.childNeedsRedraw) {
+      long renderStart = System.nanoTime();
       this.pg.beginDraw();
+
+      // Only repaint the region covering what was redrawn, unless the whole
+      // context was. Before the first redraw there's no region, so also
+      // paint everything.
+      boolean clip = this.hasDirtyRect && !this.needsRedraw;
+      if (clip) {
+        float x0 = (float) Math.floor(this.dirtyX0);
+        float y0 = (float) Math.floor(this.dirtyY0);
+        this.pg.clip(x0, y0, (float) Math.ceil(this.dirtyX1) - x0, (float) Math.ceil(this.dirtyY1) - y0);
+      }
       super.draw(ui, this.pg);
+      if (clip) {
+        this.pg.noClip();
+      }
       this.pg.endDraw();
+      this.hasDirtyRect = false;
+      this.changedSinceBlit = true;
+      this.renderHistogram.record(System.nanoTime() - renderStart);
+    }
+    if (!this.skipUnchangedBlit || this.changedSinceBlit || (this.blitX != this.x) || (this.blitY != this.y)) {
+      pg.image(this.pg, 0, 0);
+      this.changedSinceBlit = false;
+      this.blitX = this.x;
+      this.blitY = this.y;
     }
-    pg.image(this.pg, 0, 0);
   }
 
   protected PGraphics getGraphics() {
@@ -29,6 +29,36 @@ package heronarts.p2lx.ui;
  */
 public abstract class UI3dComponent extends UIObject {
 
+  @Override
+  void setUI(UI ui) {
+    UI previous = this.ui;
+    super.setUI(ui);
+    if (previous != ui) {
+      if (previous != null) {
+        onRemoveFromUI(previous);
+      }
+      if (ui != null) {
+        onAddToUI(ui);
+      }
+    }
+  }
+
+  /**
+   * Subclasses may override to be notified when this component becomes part
+   * of a UI, by being added to a 3d context or to a component in one
+   *
+   * @param ui UI
+   */
+  protected void onAddToUI(UI ui) {}
+
+  /**
+   * Subclasses may override to be notified when this component is no longer
+   * part of a UI, because it or its 3d context was removed
+   *
+   * @param ui UI it was part of
+   */
+  protected void onRemoveFromUI(UI ui) {}
+
   @Override
   public boolean contains(float x, float y) {
     return false;
@@ -42,6 +72,10 @@ public abstract class UI3dComponent extends UIObject {
    */
   public final UI3dComponent addChild(UI3dComponent child) {
     this.children.add(child);
+    if (this.ui != null) {
+      child.setUI(this.ui);
+    }
+    invalidateTabOrder();
     return this;
   }
 
@@ -53,6 +87,8 @@ public abstract class UI3dComponent extends UIObject {
    */
   public final UI3dComponent removeChild(UI3dComponent child) {
     this.children.remove(child);
+    child.setUI(null);
+    invalidateTabOrder();
     return this;
   }
 }
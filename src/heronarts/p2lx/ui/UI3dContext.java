@@ -32,6 +32,10 @@ import heronarts.lx.parameter.BasicParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXParameterListener;
 import heronarts.lx.parameter.MutableParameter;
+import heronarts.p2lx.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.core.PVector;
@@ -146,8 +150,20 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
 
   private boolean showCenter = false;
 
+  /**
+   * Number of contexts created, used to tell their histograms apart
+   */
+  private static final AtomicInteger contextCount = new AtomicInteger(0);
+
+  /**
+   * Time spent drawing the scene. Registered with the UI while this context
+   * is one of its layers.
+   */
+  public final LatencyHistogram drawHistogram;
+
   public UI3dContext(UI ui) {
     setUI(ui);
+    this.drawHistogram = new LatencyHistogram(UI.uiClassName(this, null) + " #" + contextCount.incrementAndGet() + " draw");
     this.thetaDamped.start();
     this.radiusDamped.start();
     this.phiDamped.start();
@@ -181,6 +197,11 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
    */
   public final UI3dContext addComponent(UI3dComponent component) {
     this.children.add(component);
+    if (this.parent != null) {
+      // Components join the UI along with the layer, see UI.addLayer()
+      component.setUI(this.ui);
+    }
+    invalidateTabOrder();
     return this;
   }
 
@@ -192,6 +213,8 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
    */
   public final UI3dContext removeComponent(UI3dComponent component) {
     this.children.remove(component);
+    component.setUI(null);
+    invalidateTabOrder();
     return this;
   }
 
@@ -460,6 +483,7 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
     if (!isVisible()) {
       return;
     }
+    long drawStart = System.nanoTime();
 
     // Set the camera
     computePosition();
@@ -500,6 +524,7 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
     if (hasFocus()) {
       drawFocusBorder(ui, pg);
     }
+    this.drawHistogram.record(System.nanoTime() - drawStart);
   }
 
   private void drawCenterDot(PGraphics pg) {
@@ -520,14 +545,14 @@ public class UI3dContext extends UIObject implements UITabFocus, LXLoopTask {
     pg.line(focusInset, focusInset, focusInset + focusDash, focusInset);
     pg.line(focusInset, focusInset, focusInset, focusInset + focusDash);
     // Top right
-    pg.line(ui.applet.width - focusInset, focusInset, ui.applet.width - focusInset - focusDash, focusInset);
-    pg.line(ui.applet.width - focusInset, focusInset, ui.applet.width - focusInset, focusInset + focusDash);
+    pg.line(ui.getWidth() - focusInset, focusInset, ui.getWidth() - focusInset - focusDash, focusInset);
+    pg.line(ui.getWidth() - focusInset, focusInset, ui.getWidth() - focusInset, focusInset + focusDash);
     // Bottom left
-    pg.line(focusInset, ui.applet.height - focusInset, focusInset + focusDash, ui.applet.height - focusInset);
-    pg.line(focusInset, ui.applet.height - focusInset, focusInset, ui.applet.height - focusInset - focusDash);
+    pg.line(focusInset, ui.getHeight() - focusInset, focusInset + focusDash, ui.getHeight() - focusInset);
+    pg.line(focusInset, ui.getHeight() - focusInset, focusInset, ui.getHeight() - focusInset - focusDash);
     // Bottom right
-    pg.line(ui.applet.width - focusInset, ui.applet.height - focusInset, ui.applet.width - focusInset - focusDash, ui.applet.height - focusInset);
-    pg.line(ui.applet.width - focusInset, ui.applet.height - focusInset, ui.applet.width - focusInset, ui.applet.height - focusInset - focusDash);
+    pg.line(ui.getWidth() - focusInset, ui.getHeight() - focusInset, ui.getWidth() - focusInset - focusDash, ui.getHeight() - focusInset);
+    pg.line(ui.getWidth() - focusInset, ui.getHeight() - focusInset, ui.getWidth() - focusInset, ui.getHeight() - focusInset - focusDash);
   }
 
   /**
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import processing.event.Event;
+import processing.event.MouseEvent;
+
+/**
+ * Bounded lock-free queue that hands input events from the event thread to
+ * the engine thread. There must be exactly one producer and one consumer.
+ *
+ * Only drag, move and wheel events are ever collapsed or dropped. They may
+ * fill the ring up to a reserved headroom, beyond which drags and moves
+ * collapse into a single pending event holding the latest position, and
+ * wheel events are dropped. Presses, releases, clicks and key events can
+ * always use the headroom, and should even that fill up they go into an
+ * overflow list, which is the only time anything is allocated.
+ */
+class UIEventQueue {
+
+  private final Event[] events;
+
+  private final int mask;
+
+  /**
+   * Number of slots that drag, move and wheel events may fill
+   */
+  private final int motionCapacity;
+
+  /**
+   * Next slot to read, only advanced by the consumer
+   */
+  private final AtomicLong head = new AtomicLong(0);
+
+  /**
+   * Next slot to write, only advanced by the producer
+   */
+  private final AtomicLong tail = new AtomicLong(0);
+
+  /**
+   * Events that did not fit in the ring. While this is non-empty the
+   * producer appends here rather than to the ring, and the consumer only
+   * reads from here once the ring is empty, so order is kept.
+   */
+  private final Queue<Event> overflow = new ConcurrentLinkedQueue<Event>();
+
+  /**
+   * Latest drag or move that arrived while the queue was backed up. It is
+   * newer than everything in the ring and overflow, so the consumer takes
+   * it once both are empty. The producer takes it back to enqueue ahead of
+   * any other kind of event. Whichever side swaps it out first delivers it.
+   */
+  private final AtomicReference<MouseEvent> pendingMotion =
+    new AtomicReference<MouseEvent>(null);
+
+  private volatile long dropped = 0;
+
+  private volatile long coalesced = 0;
+
+  UIEventQueue(int capacity) {
+    if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+      throw new IllegalArgumentException("UIEventQueue capacity must be a power of 2: " + capacity);
+    }
+    this.events = new Event[capacity];
+    this.mask = capacity - 1;
+    this.motionCapacity = capacity - capacity / 4;
+  }
+
+  private boolean push(Event event, int limit) {
+    long t = this.tail.get();
+    if (t - this.head.get() >= limit) {
+      return false;
+    }
+    this.events[(int) (t & this.mask)] = event;
+    this.tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Adds an event to the ring, or to the overflow if the ring is full or
+   * the overflow is already in use
+   */
+  private void enqueue(Event event) {
+    if (!this.overflow.isEmpty() || !push(event, this.events.length)) {
+      this.overflow.add(event);
+    }
+  }
+
+  /**
+   * Producer side. When the queue is backed up, drags and moves collapse
+   * down to the latest position and wheel events are dropped. Any other
+   * event is always accepted.
+   *
+   * @param event Event
+   */
+  void offer(Event event) {
+    if (isDrag(event) || isMove(event)) {
+      if ((this.pendingMotion.get() == null) && this.overflow.isEmpty() &&
+          push(event, this.motionCapacity)) {
+        return;
+      }
+      // Backed up, or already holding a position that this one replaces
+      if (this.pendingMotion.getAndSet((MouseEvent) event) != null) {
+        ++this.dropped;
+      }
+      return;
+    }
+    MouseEvent motion = this.pendingMotion.getAndSet(null);
+    if (motion != null) {
+      enqueue(motion);
+    }
+    if (isWheel(event)) {
+      if (!this.overflow.isEmpty() || !push(event, this.motionCapacity)) {
+        ++this.dropped;
+      }
+      return;
+    }
+    enqueue(event);
+  }
+
+  /**
+   * Consumer side. Takes from the ring, then the overflow, then any pending
+   * drag or move, so a final position held back while the queue was full is
+   * delivered once the backlog has drained.
+   *
+   * @return Next event, or null if the queue is empty
+   */
+  Event poll() {
+    long h = this.head.get();
+    if (h != this.tail.get()) {
+      int index = (int) (h & this.mask);
+      Event event = this.events[index];
+      this.events[index] = null;
+      this.head.lazySet(h + 1);
+      return event;
+    }
+    Event event = this.overflow.poll();
+    if (event != null) {
+      return event;
+    }
+    return this.pendingMotion.getAndSet(null);
+  }
+
+  /**
+   * Consumer side. Returns the next event without removing it.
+   *
+   * @return Next event, or null if the queue is empty
+   */
+  Event peek() {
+    long h = this.head.get();
+    if (h != this.tail.get()) {
+      return this.events[(int) (h & this.mask)];
+    }
+    Event event = this.overflow.peek();
+    if (event != null) {
+      return event;
+    }
+    return this.pendingMotion.get();
+  }
+
+  /**
+   * Consumer side. Records that an event was merged into a later one.
+   */
+  void coalesced() {
+    ++this.coalesced;
+  }
+
+  int depth() {
+    return (int) (this.tail.get() - this.head.get()) + this.overflow.size();
+  }
+
+  long getDropped() {
+    return this.dropped;
+  }
+
+  long getCoalesced() {
+    return this.coalesced;
+  }
+
+  static boolean isDrag(Event event) {
+    return (event instanceof MouseEvent) && (event.getAction() == MouseEvent.DRAG);
+  }
+
+  static boolean isMove(Event event) {
+    return (event instanceof MouseEvent) && (event.getAction() == MouseEvent.MOVE);
+  }
+
+  static boolean isWheel(Event event) {
+    return (event instanceof MouseEvent) && (event.getAction() == MouseEvent.WHEEL);
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid over the bounds of a container's children, so that finding
+ * the child under the mouse only tests the few children whose bounds share
+ * a cell with the point, rather than every child. Children are bucketed by
+ * their bounding box, so this relies on contains() never reaching outside
+ * of a component's bounds. Among the children under a point the one added
+ * or brought to front most recently wins, as in the unindexed search.
+ *
+ * The grid starts out covering the container's bounds and grows to take in
+ * any child placed outside of them. Lookups allocate nothing. When the
+ * engine is threaded, input is dispatched on the engine thread while
+ * children may be added, moved or resized from the animation thread, so
+ * every method is synchronized.
+ */
+class UIHitIndex {
+
+  /**
+   * Size of each grid cell, in pixels
+   */
+  private static final int CELL_SIZE = 64;
+
+  /**
+   * Buckets of children in row-major order, null where a cell is empty
+   */
+  private List<UI2dComponent>[] cells;
+
+  /**
+   * Grid coordinates of the first cell, and the grid dimensions
+   */
+  private int col0, row0, cols, rows;
+
+  /**
+   * Stacking order handed out to children, increasing front-wards
+   */
+  private int order = 0;
+
+  UIHitIndex(float width, float height) {
+    this.col0 = 0;
+    this.row0 = 0;
+    this.cols = cell(width) + 1;
+    this.rows = cell(height) + 1;
+    this.cells = newCells(this.cols * this.rows);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static List<UI2dComponent>[] newCells(int size) {
+    return new List[size];
+  }
+
+  private static int cell(float position) {
+    return (int) Math.floor(position / CELL_SIZE);
+  }
+
+  /**
+   * Adds a child at the front of the stacking order
+   *
+   * @param child Child component
+   */
+  synchronized void add(UI2dComponent child) {
+    child.hitOrder = ++this.order;
+    insert(child);
+  }
+
+  /**
+   * Removes a child from the index
+   *
+   * @param child Child component
+   */
+  synchronized void remove(UI2dComponent child) {
+    if (child.hitIndexed) {
+      for (int row = child.hitRow0; row <= child.hitRow1; ++row) {
+        for (int col = child.hitCol0; col <= child.hitCol1; ++col) {
+          int index = (row - this.row0) * this.cols + (col - this.col0);
+          List<UI2dComponent> bucket = this.cells[index];
+          if (bucket != null) {
+            bucket.remove(child);
+            if (bucket.isEmpty()) {
+              this.cells[index] = null;
+            }
+          }
+        }
+      }
+      child.hitIndexed = false;
+    }
+  }
+
+  /**
+   * Re-buckets a child whose position or size has changed
+   *
+   * @param child Child component
+   */
+  synchronized void update(UI2dComponent child) {
+    int col0 = cell(child.x);
+    int row0 = cell(child.y);
+    int col1 = cell(child.x + child.width);
+    int row1 = cell(child.y + child.height);
+    if (child.hitIndexed &&
+        (col0 == child.hitCol0) && (row0 == child.hitRow0) &&
+        (col1 == child.hitCol1) && (row1 == child.hitRow1)) {
+      return;
+    }
+    remove(child);
+    insert(child);
+  }
+
+  /**
+   * Moves a child to the front of the stacking order
+   *
+   * @param child Child component
+   */
+  synchronized void raise(UI2dComponent child) {
+    child.hitOrder = ++this.order;
+  }
+
+  private void insert(UI2dComponent child) {
+    child.hitCol0 = cell(child.x);
+    child.hitRow0 = cell(child.y);
+    child.hitCol1 = cell(child.x + child.width);
+    child.hitRow1 = cell(child.y + child.height);
+    grow(child.hitCol0, child.hitRow0, child.hitCol1, child.hitRow1);
+    for (int row = child.hitRow0; row <= child.hitRow1; ++row) {
+      for (int col = child.hitCol0; col <= child.hitCol1; ++col) {
+        int index = (row - this.row0) * this.cols + (col - this.col0);
+        List<UI2dComponent> bucket = this.cells[index];
+        if (bucket == null) {
+          this.cells[index] = bucket = new ArrayList<UI2dComponent>(4);
+        }
+        bucket.add(child);
+      }
+    }
+    child.hitIndexed = true;
+  }
+
+  /**
+   * Extends the grid to cover the given range of cells, if it doesn't already
+   */
+  private void grow(int col0, int row0, int col1, int row1) {
+    int newCol0 = Math.min(col0, this.col0);
+    int newRow0 = Math.min(row0, this.row0);
+    int newCols = Math.max(col1 + 1, this.col0 + this.cols) - newCol0;
+    int newRows = Math.max(row1 + 1, this.row0 + this.rows) - newRow0;
+    if ((newCol0 == this.col0) && (newRow0 == this.row0) && (newCols == this.cols) && (newRows == this.rows)) {
+      return;
+    }
+    List<UI2dComponent>[] newCells = newCells(newCols * newRows);
+    for (int row = 0; row < this.rows; ++row) {
+      System.arraycopy(
+        this.cells, row * this.cols,
+        newCells, (row + this.row0 - newRow0) * newCols + (this.col0 - newCol0),
+        this.cols
+      );
+    }
+    this.cells = newCells;
+    this.col0 = newCol0;
+    this.row0 = newRow0;
+    this.cols = newCols;
+    this.rows = newRows;
+  }
+
+  /**
+   * Finds the front-most visible child containing a point
+   *
+   * @param x X-position in the container's coordinate space
+   * @param y Y-position in the container's coordinate space
+   * @return Child under the point, or null if there is none
+   */
+  synchronized UI2dComponent find(float x, float y) {
+    int col = cell(x) - this.col0;
+    int row = cell(y) - this.row0;
+    if ((col < 0) || (col >= this.cols) || (row < 0) || (row >= this.rows)) {
+      return null;
+    }
+    List<UI2dComponent> bucket = this.cells[row * this.cols + col];
+    if (bucket == null) {
+      return null;
+    }
+    UI2dComponent found = null;
+    for (int i = 0; i < bucket.size(); ++i) {
+      UI2dComponent child = bucket.get(i);
+      if (((found == null) || (child.hitOrder > found.hitOrder)) &&
+          child.isVisible() && child.contains(x, y)) {
+        found = child;
+      }
+    }
+    return found;
+  }
+}
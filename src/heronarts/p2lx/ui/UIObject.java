@@ -45,6 +45,23 @@ public abstract class UIObject {
 
   private UIObject pressedChild = null;
 
+  private UIObject hoveredChild = null;
+
+  /**
+   * Spatial index of the children, or null to search them in order
+   */
+  UIHitIndex hitIndex = null;
+
+  /**
+   * Focusable objects either side of this one in tab order, valid while
+   * tabOrderVersion matches the UI's
+   */
+  UIObject tabNext = null;
+
+  UIObject tabPrev = null;
+
+  int tabOrderVersion = -1;
+
   private boolean hasFocus = false;
 
   /**
@@ -57,6 +74,18 @@ public abstract class UIObject {
     for (UIObject child : this.children) {
       child.setUI(ui);
     }
+    // A subtree built while detached is joining the tree
+    invalidateTabOrder();
+  }
+
+  /**
+   * Internal helper, called when a change to this object affects the order
+   * in which objects receive focus from the Tab key
+   */
+  void invalidateTabOrder() {
+    if (this.ui != null) {
+      this.ui.invalidateTabOrder();
+    }
   }
 
   /**
@@ -79,11 +108,11 @@ public abstract class UIObject {
   }
 
   public float getWidth() {
-    return (this.ui != null) ? this.ui.applet.width : 0;
+    return (this.ui != null) ? this.ui.getWidth() : 0;
   }
 
   public float getHeight() {
-    return (this.ui != null) ? this.ui.applet.height : 0;
+    return (this.ui != null) ? this.ui.getHeight() : 0;
   }
 
   /**
@@ -113,6 +142,7 @@ public abstract class UIObject {
   public UIObject setVisible(boolean visible) {
     if (this.visible != visible) {
       this.visible = visible;
+      invalidateTabOrder();
       if (!visible) {
         blur();
       }
@@ -200,6 +230,10 @@ public abstract class UIObject {
       this.parent.children.remove(this);
       this.parent.children.add(this);
     }
+    if (this.parent.hitIndex != null) {
+      this.parent.hitIndex.raise((UI2dComponent) this);
+    }
+    invalidateTabOrder();
     return this;
   }
 
@@ -224,15 +258,32 @@ public abstract class UIObject {
    */
   protected void onDraw(UI ui, PGraphics pg) {}
 
-  void mousePressed(MouseEvent mouseEvent, float mx, float my) {
+  /**
+   * Finds the front-most visible child containing a point
+   *
+   * @param mx X-position in this object's coordinate space
+   * @param my Y-position in this object's coordinate space
+   * @return Child under the point, or null if there is none
+   */
+  UIObject findChildAt(float mx, float my) {
+    if (this.hitIndex != null) {
+      return this.hitIndex.find(mx, my);
+    }
     for (int i = this.children.size() - 1; i >= 0; --i) {
       UIObject child = this.children.get(i);
       if (child.isVisible() && child.contains(mx, my)) {
-        child.mousePressed(mouseEvent, mx - child.getX(), my - child.getY());
-        this.pressedChild = child;
-        break;
+        return child;
       }
     }
+    return null;
+  }
+
+  void mousePressed(MouseEvent mouseEvent, float mx, float my) {
+    UIObject child = findChildAt(mx, my);
+    if (child != null) {
+      child.mousePressed(mouseEvent, mx - child.getX(), my - child.getY());
+      this.pressedChild = child;
+    }
     if (!hasFocus() && (this instanceof UIFocus)) {
       focus();
     }
@@ -252,12 +303,9 @@ public abstract class UIObject {
   }
 
   void mouseClicked(MouseEvent mouseEvent, float mx, float my) {
-    for (int i = this.children.size() - 1; i >= 0; --i) {
-      UIObject child = this.children.get(i);
-      if (child.isVisible() && child.contains(mx, my)) {
-        child.mouseClicked(mouseEvent, mx - child.getX(), my - child.getY());
-        break;
-      }
+    UIObject child = findChildAt(mx, my);
+    if (child != null) {
+      child.mouseClicked(mouseEvent, mx - child.getX(), my - child.getY());
     }
     onMouseClicked(mouseEvent, mx, my);
   }
@@ -276,16 +324,38 @@ public abstract class UIObject {
   }
 
   void mouseWheel(MouseEvent mouseEvent, float mx, float my, float delta) {
-    for (int i = this.children.size() - 1; i >= 0; --i) {
-      UIObject child = this.children.get(i);
-      if (child.isVisible() && child.contains(mx, my)) {
-        child.mouseWheel(mouseEvent, mx - child.getX(), my - child.getY(), delta);
-        break;
-      }
+    UIObject child = findChildAt(mx, my);
+    if (child != null) {
+      child.mouseWheel(mouseEvent, mx - child.getX(), my - child.getY(), delta);
     }
     onMouseWheel(mouseEvent, mx, my, delta);
   }
 
+  void mouseMoved(MouseEvent mouseEvent, float mx, float my) {
+    UIObject child = findChildAt(mx, my);
+    if (child != this.hoveredChild) {
+      if (this.hoveredChild != null) {
+        this.hoveredChild.mouseOut(mouseEvent);
+      }
+      this.hoveredChild = child;
+      if (child != null) {
+        child.onMouseOver(mouseEvent);
+      }
+    }
+    if (child != null) {
+      child.mouseMoved(mouseEvent, mx - child.getX(), my - child.getY());
+    }
+    onMouseMoved(mouseEvent, mx, my);
+  }
+
+  private void mouseOut(MouseEvent mouseEvent) {
+    if (this.hoveredChild != null) {
+      this.hoveredChild.mouseOut(mouseEvent);
+      this.hoveredChild = null;
+    }
+    onMouseOut(mouseEvent);
+  }
+
   void keyPressed(KeyEvent keyEvent, char keyChar, int keyCode) {
     if (this.focusedChild != null) {
       this.focusedChild.keyPressed(keyEvent, keyChar, keyCode);
@@ -330,6 +400,25 @@ public abstract class UIObject {
   protected void onMouseWheel(MouseEvent mouseEvent, float mx, float my, float delta) {
   }
 
+  protected void onMouseMoved(MouseEvent mouseEvent, float mx, float my) {
+  }
+
+  /**
+   * Subclasses override to be notified when the mouse moves over this object
+   *
+   * @param mouseEvent
+   */
+  protected void onMouseOver(MouseEvent mouseEvent) {
+  }
+
+  /**
+   * Subclasses override to be notified when the mouse moves off this object
+   *
+   * @param mouseEvent
+   */
+  protected void onMouseOut(MouseEvent mouseEvent) {
+  }
+
   protected void onKeyPressed(KeyEvent keyEvent, char keyChar, int keyCode) {
   }
 
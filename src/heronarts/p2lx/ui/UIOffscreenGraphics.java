@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui;
+
+import java.awt.Font;
+
+import processing.core.PGraphicsJava2D;
+
+/**
+ * A JAVA2D graphics buffer that can be used with no sketch, for drawing a
+ * UI offscreen. Processing looks up font metrics through the parent
+ * applet, so these are taken from the buffer's own Graphics2D instead.
+ */
+public class UIOffscreenGraphics extends PGraphicsJava2D {
+
+  /**
+   * Creates an offscreen buffer
+   *
+   * @param width Width
+   * @param height Height
+   */
+  public UIOffscreenGraphics(int width, int height) {
+    setPrimary(false);
+    setSize(width, height);
+  }
+
+  @Override
+  public float textAscent() {
+    Font font = nativeFont();
+    if ((font != null) && (this.g2 != null)) {
+      return this.g2.getFontMetrics(font).getAscent();
+    }
+    return super.textAscent();
+  }
+
+  @Override
+  public float textDescent() {
+    Font font = nativeFont();
+    if ((font != null) && (this.g2 != null)) {
+      return this.g2.getFontMetrics(font).getDescent();
+    }
+    return super.textDescent();
+  }
+
+  private Font nativeFont() {
+    if ((this.parent != null) || (this.textFont == null)) {
+      return null;
+    }
+    return (Font) this.textFont.getNative();
+  }
+}
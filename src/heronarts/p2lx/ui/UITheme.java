@@ -24,6 +24,8 @@
 
 package heronarts.p2lx.ui;
 
+import java.awt.Font;
+
 import processing.core.PApplet;
 import processing.core.PFont;
 
@@ -48,8 +50,16 @@ public class UITheme {
   private int controlDisabledColor = 0xff666666;
 
   UITheme(PApplet applet) {
-    this.controlFont = applet.createFont("Lucida Grande", 11);
-    this.setLabelFont(this.windowTitleFont = applet.createFont("Myriad Pro", 10));
+    this.controlFont = createFont(applet, "Lucida Grande", 11);
+    this.setLabelFont(this.windowTitleFont = createFont(applet, "Myriad Pro", 10));
+  }
+
+  private static PFont createFont(PApplet applet, String name, int size) {
+    if (applet != null) {
+      return applet.createFont(name, size);
+    }
+    // Offscreen UI with no sketch, build the font the same way PApplet does
+    return new PFont(new Font(name, Font.PLAIN, size), true, null);
   }
 
   /**
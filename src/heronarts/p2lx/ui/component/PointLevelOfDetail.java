@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui.component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import processing.core.PGraphics;
+import processing.core.PMatrix3D;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * Decimation hierarchy for drawing large models from a distance. Each level
+ * snaps the points to a voxel grid, half the cell size of the level before,
+ * and keeps one representative per occupied cell. Its position is the
+ * average of the cell's points, and it takes the color of the point nearest
+ * to that average.
+ */
+class PointLevelOfDetail {
+
+  /**
+   * Coarsest level has cells of this fraction of the model's extent
+   */
+  private static final int FIRST_LEVEL_BITS = 3;
+
+  private static final int MAX_LEVEL_BITS = 13;
+
+  private static final int INDEX_BITS = 21;
+
+  /**
+   * Once a level keeps more than this fraction of the points there's little
+   * point in another, full detail is used instead
+   */
+  private static final float MAX_LEVEL_FRACTION = .25f;
+
+  class Level {
+
+    /**
+     * Size of a voxel at this level
+     */
+    final float cellSize;
+
+    /**
+     * Representative positions, XYZ
+     */
+    final float[] positions;
+
+    /**
+     * Color index of each representative
+     */
+    final int[] colorIndex;
+
+    private Level(float cellSize, float[] positions, int[] colorIndex) {
+      this.cellSize = cellSize;
+      this.positions = positions;
+      this.colorIndex = colorIndex;
+    }
+
+    private FloatBuffer vertexBuffer = null;
+
+    int size() {
+      return this.colorIndex.length;
+    }
+
+    /**
+     * Direct buffer of the positions, built on first use
+     */
+    FloatBuffer getVertexBuffer() {
+      if (this.vertexBuffer == null) {
+        this.vertexBuffer = ByteBuffer
+          .allocateDirect(this.positions.length * Float.SIZE/8)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+        this.vertexBuffer.put(this.positions);
+      }
+      this.vertexBuffer.position(0);
+      return this.vertexBuffer;
+    }
+  }
+
+  final Level[] levels;
+
+  private final LXModel model;
+
+  PointLevelOfDetail(LXModel model) {
+    if (model.size >= (1 << INDEX_BITS)) {
+      throw new IllegalArgumentException("Level of detail supports up to " + (1 << INDEX_BITS) + " points");
+    }
+    this.model = model;
+    LXPoint[] points = model.points.toArray(new LXPoint[model.size]);
+    float extent = Math.max(model.xRange, Math.max(model.yRange, model.zRange));
+    List<Level> levels = new ArrayList<Level>();
+    if (extent > 0) {
+      long[] keys = new long[points.length];
+      for (int bits = FIRST_LEVEL_BITS; bits <= MAX_LEVEL_BITS; ++bits) {
+        Level level = buildLevel(points, keys, extent, bits);
+        if (level.size() > points.length * MAX_LEVEL_FRACTION) {
+          break;
+        }
+        if (levels.isEmpty() || (level.size() > levels.get(levels.size() - 1).size())) {
+          levels.add(level);
+        }
+      }
+    }
+    this.levels = levels.toArray(new Level[levels.size()]);
+  }
+
+  private Level buildLevel(LXPoint[] points, long[] keys, float extent, int bits) {
+    int cells = 1 << bits;
+    float cellSize = extent / cells;
+    for (int i = 0; i < points.length; ++i) {
+      LXPoint p = points[i];
+      long ix = cell(p.x - this.model.xMin, cellSize, cells);
+      long iy = cell(p.y - this.model.yMin, cellSize, cells);
+      long iz = cell(p.z - this.model.zMin, cellSize, cells);
+      long voxel = (((ix << bits) | iy) << bits) | iz;
+      keys[i] = (voxel << INDEX_BITS) | i;
+    }
+    Arrays.sort(keys);
+
+    // Count occupied voxels
+    int numCells = 0;
+    long prev = -1;
+    for (long key : keys) {
+      long voxel = key >>> INDEX_BITS;
+      if (voxel != prev) {
+        ++numCells;
+        prev = voxel;
+      }
+    }
+
+    float[] positions = new float[3 * numCells];
+    int[] colorIndex = new int[numCells];
+    int mask = (1 << INDEX_BITS) - 1;
+    int c = 0;
+    int start = 0;
+    while (start < keys.length) {
+      long voxel = keys[start] >>> INDEX_BITS;
+      int end = start;
+      float sx = 0, sy = 0, sz = 0;
+      while ((end < keys.length) && ((keys[end] >>> INDEX_BITS) == voxel)) {
+        LXPoint p = points[(int) (keys[end] & mask)];
+        sx += p.x;
+        sy += p.y;
+        sz += p.z;
+        ++end;
+      }
+      int n = end - start;
+      float ax = sx / n, ay = sy / n, az = sz / n;
+      int nearest = 0;
+      float nearestDist = Float.MAX_VALUE;
+      for (int i = start; i < end; ++i) {
+        LXPoint p = points[(int) (keys[i] & mask)];
+        float dx = p.x - ax, dy = p.y - ay, dz = p.z - az;
+        float dist = dx*dx + dy*dy + dz*dz;
+        if (dist < nearestDist) {
+          nearestDist = dist;
+          nearest = p.index;
+        }
+      }
+      positions[3*c] = ax;
+      positions[3*c + 1] = ay;
+      positions[3*c + 2] = az;
+      colorIndex[c] = nearest;
+      ++c;
+      start = end;
+    }
+    return new Level(cellSize, positions, colorIndex);
+  }
+
+  private static long cell(float offset, float cellSize, int cells) {
+    return Math.min(cells - 1, (long) (offset / cellSize));
+  }
+
+  /**
+   * Picks the coarsest level whose voxels project no larger than the given
+   * size on screen, based on the distance from the camera to the nearest
+   * part of the model and the current field of view.
+   *
+   * @param pg Graphics context with camera and perspective set
+   * @param maxPixels Largest acceptable voxel size on screen
+   * @return Level to draw, or null for full detail
+   */
+  Level select(PGraphics pg, float maxPixels) {
+    if ((this.levels.length == 0) || !(pg instanceof PGraphicsOpenGL)) {
+      return null;
+    }
+    PGraphicsOpenGL pgOpenGL = (PGraphicsOpenGL) pg;
+    PMatrix3D inv = pgOpenGL.modelviewInv;
+    float dx = Math.max(0, Math.max(this.model.xMin - inv.m03, inv.m03 - this.model.xMax));
+    float dy = Math.max(0, Math.max(this.model.yMin - inv.m13, inv.m13 - this.model.yMax));
+    float dz = Math.max(0, Math.max(this.model.zMin - inv.m23, inv.m23 - this.model.zMax));
+    float distance = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+    if (distance <= 0) {
+      return null;
+    }
+
+    // Projection m11 is cot(fov/2), giving pixels per unit at this distance
+    float pixelsPerUnit = Math.abs(pgOpenGL.projection.m11) * pg.height / 2 / distance;
+    for (Level level : this.levels) {
+      if (level.cellSize * pixelsPerUnit <= maxPixels) {
+        return level;
+      }
+    }
+    return null;
+  }
+
+}
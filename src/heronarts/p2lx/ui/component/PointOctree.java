@@ -0,0 +1,268 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.ui.component;
+
+import java.util.List;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+/**
+ * Octree over the points of a model. Points are reordered so that every node
+ * covers a contiguous range, which lets a visibility query be answered as a
+ * short list of index ranges that can be drawn directly.
+ */
+class PointOctree {
+
+  /**
+   * Nodes with this many points or fewer are not subdivided
+   */
+  private static final int LEAF_SIZE = 256;
+
+  private static final int MAX_DEPTH = 16;
+
+  class Node {
+
+    /**
+     * Range of this node's points, in octree order
+     */
+    final int start, end;
+
+    final int depth;
+
+    final float xMin, yMin, zMin, xMax, yMax, zMax;
+
+    /**
+     * Non-empty child octants, or null for a leaf
+     */
+    Node[] children = null;
+
+    private Node(int start, int end, int depth, float[] bounds) {
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+      this.xMin = bounds[0];
+      this.yMin = bounds[1];
+      this.zMin = bounds[2];
+      this.xMax = bounds[3];
+      this.yMax = bounds[4];
+      this.zMax = bounds[5];
+    }
+
+    boolean isLeaf() {
+      return this.children == null;
+    }
+  }
+
+  /**
+   * Points in octree order
+   */
+  final LXPoint[] points;
+
+  final Node root;
+
+  private int numLeaves = 0;
+
+  private final int[] octant;
+
+  private final LXPoint[] scratch;
+
+  PointOctree(LXModel model) {
+    List<LXPoint> modelPoints = model.points;
+    this.points = modelPoints.toArray(new LXPoint[modelPoints.size()]);
+    this.octant = new int[this.points.length];
+    this.scratch = new LXPoint[this.points.length];
+    this.root = build(0, this.points.length, 0);
+  }
+
+  int getNumLeaves() {
+    return this.numLeaves;
+  }
+
+  private Node build(int start, int end, int depth) {
+    float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+      -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+    for (int i = start; i < end; ++i) {
+      LXPoint p = this.points[i];
+      bounds[0] = Math.min(bounds[0], p.x);
+      bounds[1] = Math.min(bounds[1], p.y);
+      bounds[2] = Math.min(bounds[2], p.z);
+      bounds[3] = Math.max(bounds[3], p.x);
+      bounds[4] = Math.max(bounds[4], p.y);
+      bounds[5] = Math.max(bounds[5], p.z);
+    }
+    Node node = new Node(start, end, depth, bounds);
+    boolean degenerate =
+      (bounds[0] == bounds[3]) && (bounds[1] == bounds[4]) && (bounds[2] == bounds[5]);
+    if ((end - start <= LEAF_SIZE) || (depth >= MAX_DEPTH) || degenerate) {
+      ++this.numLeaves;
+      return node;
+    }
+
+    // Counting sort the range into octants about the center of its bounds
+    float mx = (bounds[0] + bounds[3]) / 2;
+    float my = (bounds[1] + bounds[4]) / 2;
+    float mz = (bounds[2] + bounds[5]) / 2;
+    int[] counts = new int[8];
+    for (int i = start; i < end; ++i) {
+      LXPoint p = this.points[i];
+      int o = ((p.x >= mx) ? 1 : 0) | ((p.y >= my) ? 2 : 0) | ((p.z >= mz) ? 4 : 0);
+      this.octant[i] = o;
+      ++counts[o];
+    }
+    int[] offsets = new int[8];
+    int offset = start;
+    for (int o = 0; o < 8; ++o) {
+      offsets[o] = offset;
+      offset += counts[o];
+    }
+    for (int i = start; i < end; ++i) {
+      this.scratch[offsets[this.octant[i]]++] = this.points[i];
+    }
+    System.arraycopy(this.scratch, start, this.points, start, end - start);
+
+    int numChildren = 0;
+    for (int o = 0; o < 8; ++o) {
+      if (counts[o] > 0) {
+        ++numChildren;
+      }
+    }
+    node.children = new Node[numChildren];
+    int childStart = start;
+    int c = 0;
+    for (int o = 0; o < 8; ++o) {
+      if (counts[o] > 0) {
+        node.children[c++] = build(childStart, childStart + counts[o], depth + 1);
+        childStart += counts[o];
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Visibility query against a view frustum and optional distance limit.
+   * Results are written as ranges into the supplied first/count arrays,
+   * which must be at least getNumLeaves() long. Adjacent ranges are merged.
+   */
+  class Query {
+
+    /**
+     * Frustum planes, 4 coefficients each, inside when ax+by+cz+d >= 0
+     */
+    final float[] planes = new float[24];
+
+    float eyeX, eyeY, eyeZ;
+
+    /**
+     * Maximum distance from the eye, 0 for no limit
+     */
+    float maxDistance = 0;
+
+    int[] first;
+
+    int[] count;
+
+    int numRanges;
+
+    private static final int ALL_PLANES = 0x3f;
+
+    int run(int[] first, int[] count) {
+      this.first = first;
+      this.count = count;
+      this.numRanges = 0;
+      visit(root, ALL_PLANES);
+      return this.numRanges;
+    }
+
+    private void visit(Node node, int planeMask) {
+      // Frustum test, dropping planes the node is entirely inside of
+      for (int i = 0; i < 6; ++i) {
+        if ((planeMask & (1 << i)) != 0) {
+          float a = this.planes[4*i];
+          float b = this.planes[4*i + 1];
+          float c = this.planes[4*i + 2];
+          float d = this.planes[4*i + 3];
+          float far =
+            a * ((a >= 0) ? node.xMax : node.xMin) +
+            b * ((b >= 0) ? node.yMax : node.yMin) +
+            c * ((c >= 0) ? node.zMax : node.zMin) + d;
+          if (far < 0) {
+            return;
+          }
+          float near =
+            a * ((a >= 0) ? node.xMin : node.xMax) +
+            b * ((b >= 0) ? node.yMin : node.yMax) +
+            c * ((c >= 0) ? node.zMin : node.zMax) + d;
+          if (near >= 0) {
+            planeMask &= ~(1 << i);
+          }
+        }
+      }
+
+      boolean withinDistance = true;
+      if (this.maxDistance > 0) {
+        float max2 = this.maxDistance * this.maxDistance;
+        if (nearestDistanceSq(node) > max2) {
+          return;
+        }
+        withinDistance = farthestDistanceSq(node) <= max2;
+      }
+
+      if (node.isLeaf() || ((planeMask == 0) && withinDistance)) {
+        emit(node.start, node.end);
+      } else {
+        for (Node child : node.children) {
+          visit(child, planeMask);
+        }
+      }
+    }
+
+    private float nearestDistanceSq(Node node) {
+      float dx = Math.max(0, Math.max(node.xMin - this.eyeX, this.eyeX - node.xMax));
+      float dy = Math.max(0, Math.max(node.yMin - this.eyeY, this.eyeY - node.yMax));
+      float dz = Math.max(0, Math.max(node.zMin - this.eyeZ, this.eyeZ - node.zMax));
+      return dx*dx + dy*dy + dz*dz;
+    }
+
+    private float farthestDistanceSq(Node node) {
+      float dx = Math.max(Math.abs(node.xMin - this.eyeX), Math.abs(node.xMax - this.eyeX));
+      float dy = Math.max(Math.abs(node.yMin - this.eyeY), Math.abs(node.yMax - this.eyeY));
+      float dz = Math.max(Math.abs(node.zMin - this.eyeZ), Math.abs(node.zMax - this.eyeZ));
+      return dx*dx + dy*dy + dz*dz;
+    }
+
+    private void emit(int start, int end) {
+      int last = this.numRanges - 1;
+      if ((last >= 0) && (this.first[last] + this.count[last] == start)) {
+        this.count[last] += end - start;
+      } else {
+        this.first[this.numRanges] = start;
+        this.count[this.numRanges] = end - start;
+        ++this.numRanges;
+      }
+    }
+  }
+
+}
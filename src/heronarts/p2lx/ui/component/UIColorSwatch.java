@@ -24,7 +24,9 @@
 
 package heronarts.p2lx.ui.component;
 
+import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.core.PImage;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
 import heronarts.lx.LXUtils;
@@ -45,6 +47,14 @@ public class UIColorSwatch extends UI2dComponent implements UIFocus {
 
   private final static int RECT_SIZE = 3;
 
+  /**
+   * Rasterized gradient, rebuilt only when the size, enabled state or
+   * brightness changes. Moving the cursor re-uses it.
+   */
+  private PImage gradient = null;
+  private boolean gradientEnabled;
+  private float gradientBrightness;
+
   public UIColorSwatch(LXPalette palette, float x, float y, float w, float h) {
     this(palette.color, x, y, w, h);
   }
@@ -70,19 +80,7 @@ public class UIColorSwatch extends UI2dComponent implements UIFocus {
   @Override
   protected void onDraw(UI ui, PGraphics pg) {
     // Gradient
-    pg.noStroke();
-    float maxBright = this.color.brightness.getValuef();
-    float minBright = Math.min(20, maxBright);
-    for (int x = 0; x < this.width; ++x) {
-      for (int y = 0; y < this.height; ++y) {
-        pg.fill(LXColor.hsb(
-          360 * x / this.width,
-          (this.enabled ? 100 : 50) * (1 - y / this.height),
-          (!this.enabled ? (minBright + (maxBright-minBright) *(y / this.height)) : maxBright)
-        ));
-        pg.rect(x, y, 1, 1);
-      }
-    }
+    pg.image(getGradient(), 0, 0);
 
     // Cursor
     pg.strokeWeight(1);
@@ -95,6 +93,36 @@ public class UIColorSwatch extends UI2dComponent implements UIFocus {
     );
   }
 
+  private PImage getGradient() {
+    int w = (int) Math.ceil(this.width);
+    int h = (int) Math.ceil(this.height);
+    float maxBright = this.color.brightness.getValuef();
+    if ((this.gradient != null) &&
+        (this.gradient.width == w) &&
+        (this.gradient.height == h) &&
+        (this.gradientEnabled == this.enabled) &&
+        (this.gradientBrightness == maxBright)) {
+      return this.gradient;
+    }
+    if ((this.gradient == null) || (this.gradient.width != w) || (this.gradient.height != h)) {
+      this.gradient = new PImage(w, h, PConstants.RGB);
+    }
+    float minBright = Math.min(20, maxBright);
+    int[] pixels = this.gradient.pixels;
+    for (int y = 0; y < h; ++y) {
+      float saturation = (this.enabled ? 100 : 50) * (1 - y / this.height);
+      float brightness = !this.enabled ? (minBright + (maxBright-minBright) *(y / this.height)) : maxBright;
+      int row = y * w;
+      for (int x = 0; x < w; ++x) {
+        pixels[row + x] = LXColor.hsb(360 * x / this.width, saturation, brightness);
+      }
+    }
+    this.gradient.updatePixels();
+    this.gradientEnabled = this.enabled;
+    this.gradientBrightness = maxBright;
+    return this.gradient;
+  }
+
   @Override
   protected void onMousePressed(MouseEvent mouseEvent, float mx, float my) {
     if (this.enabled) {
@@ -29,7 +29,9 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
+import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
+import javax.media.opengl.GL3ES3;
 
 import processing.core.PGraphics;
 import processing.opengl.PGL;
@@ -47,10 +49,124 @@ import heronarts.p2lx.ui.UI;
 public class UIGLPointCloud extends UIPointCloud {
 
   private final PShader shader;
-  private final FloatBuffer vertexData;
-  private int vertexBufferObjectName;
+
+  /**
+   * Static XYZ positions, uploaded once
+   */
+  private final FloatBuffer positionData;
+
+  /**
+   * Packed ARGB colors, one int per point. This is little-endian so that the
+   * bytes are always BGRA in memory, the vertex shader swizzles them back.
+   */
+  private final IntBuffer colorData;
+
+  private final int positionBufferObjectName;
+
+  private final int colorBufferObjectName;
+
   private boolean alphaTestEnabled = false;
 
+  /**
+   * If the points are a contiguous run of the color array, this is the index
+   * of the first one, otherwise -1.
+   */
+  private int contiguousOffset = -1;
+
+  /**
+   * Set when the point order changes and positions must be re-uploaded. No
+   * initializer, as this is first set from the superclass constructor.
+   */
+  private boolean positionsDirty;
+
+  private boolean dirtyRangeUploadEnabled = false;
+
+  private boolean needsFullUpload = true;
+
+  private long uploadedFrame = -1;
+
+  /**
+   * Start and end indices of changed ranges, stored as pairs
+   */
+  private final int[] dirtyRanges = new int[2 * MAX_DIRTY_RANGES];
+
+  private static final int MAX_DIRTY_RANGES = 64;
+
+  /**
+   * Changed ranges separated by fewer unchanged points than this are merged
+   * into one upload, which is cheaper than an extra call
+   */
+  private static final int DIRTY_RANGE_GAP = 32;
+
+  /**
+   * Number of segments in the streaming ring buffer, 0 if not streaming
+   */
+  private int ringSize = 0;
+
+  private int requestedRingSize = 0;
+
+  private int ringBufferObjectName = 0;
+
+  private int ringSegment = 0;
+
+  private long[] ringFences = null;
+
+  private boolean ringUsesFences = false;
+
+  /**
+   * Statistics on the streaming ring buffer
+   */
+  public class RingStats {
+
+    /**
+     * Frames written into the ring
+     */
+    public long frames = 0;
+
+    /**
+     * Number of frames that had to wait for the GPU to release a segment
+     */
+    public long fenceWaits = 0;
+
+    /**
+     * Total time spent waiting on fences
+     */
+    public long fenceWaitNanos = 0;
+
+    /**
+     * Number of frames uploaded with glBufferSubData instead of a mapping,
+     * because the GPU had not released the segment in time or the mapping
+     * failed
+     */
+    public long fallbacks = 0;
+
+    public void reset() {
+      this.frames = this.fenceWaits = this.fenceWaitNanos = this.fallbacks = 0;
+    }
+  }
+
+  public final RingStats ringStats = new RingStats();
+
+  /**
+   * Buffers for drawing a decimated level of detail, created on first use
+   */
+  private int levelPositionBufferObjectName = 0;
+
+  private int levelColorBufferObjectName = 0;
+
+  private IntBuffer levelColorData = null;
+
+  /**
+   * Level whose positions are currently in the level position buffer
+   */
+  private PointLevelOfDetail.Level uploadedLevel = null;
+
+  private static final long FENCE_TIMEOUT_NANOS = 1000000000L;
+
+  private static final int POSITION_BYTES_PER_POINT = 3 * Float.SIZE/8;
+
+  private static final int COLOR_BYTES_PER_POINT = Integer.SIZE/8;
+
   private static final float[] NO_ATTENUATION = { 1, 0, 0 };
 
   /**
@@ -74,38 +190,60 @@ public class UIGLPointCloud extends UIPointCloud {
     // Load shader
     this.shader = lx.applet.loadShader("frag.glsl", "vert.glsl");
 
-    // Create a buffer for vertex data
-    this.vertexData = ByteBuffer
-      .allocateDirect(model.size * 7 * Float.SIZE/8)
+    // Create buffers for position and color data
+    this.positionData = ByteBuffer
+      .allocateDirect(model.size * POSITION_BYTES_PER_POINT)
       .order(ByteOrder.nativeOrder())
       .asFloatBuffer();
+    this.colorData = ByteBuffer
+      .allocateDirect(model.size * COLOR_BYTES_PER_POINT)
+      .order(ByteOrder.LITTLE_ENDIAN)
+      .asIntBuffer();
 
     // Put all the points into the buffer
-    this.vertexData.rewind();
-    for (LXPoint point : model.points) {
-      // Each point has 7 floats, XYZRGBA
-      this.vertexData.put(point.x);
-      this.vertexData.put(point.y);
-      this.vertexData.put(point.z);
-      this.vertexData.put(0f);
-      this.vertexData.put(0f);
-      this.vertexData.put(0f);
-      this.vertexData.put(1f);
-    }
-    this.vertexData.position(0);
-
-    // Generate a buffer binding
+    buildPositions();
+
+    // Generate buffer bindings
     IntBuffer resultBuffer = ByteBuffer
-      .allocateDirect(1 * Integer.SIZE/8)
+      .allocateDirect(2 * Integer.SIZE/8)
       .order(ByteOrder.nativeOrder())
       .asIntBuffer();
 
     PGL pgl = this.lx.applet.beginPGL();
-    pgl.genBuffers(1, resultBuffer); // Generates a buffer, places its id in resultBuffer[0]
-    this.vertexBufferObjectName = resultBuffer.get(0); // Grab our buffer name
+    pgl.genBuffers(2, resultBuffer); // Generates buffers, places their ids in resultBuffer
+    this.positionBufferObjectName = resultBuffer.get(0);
+    this.colorBufferObjectName = resultBuffer.get(1);
+
+    // Positions never change, upload them once
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.positionBufferObjectName);
+    pgl.bufferData(PGL.ARRAY_BUFFER, model.size * POSITION_BYTES_PER_POINT, this.positionData, PGL.STATIC_DRAW);
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
     this.lx.applet.endPGL();
   }
 
+  private void buildPositions() {
+    boolean contiguous = true;
+    this.positionData.rewind();
+    for (int i = 0; i < this.points.length; ++i) {
+      LXPoint point = this.points[i];
+      if ((i > 0) && (point.index != this.pointIndex[i-1] + 1)) {
+        contiguous = false;
+      }
+      this.positionData.put(point.x);
+      this.positionData.put(point.y);
+      this.positionData.put(point.z);
+    }
+    this.positionData.position(0);
+    this.contiguousOffset = (contiguous && (this.points.length > 0)) ? this.pointIndex[0] : -1;
+    this.positionsDirty = false;
+  }
+
+  @Override
+  protected void onPointOrderChanged() {
+    super.onPointOrderChanged();
+    this.positionsDirty = true;
+  }
+
   /**
    * Enable alpha testing for dense point clouds to minimize some forms of
    * visible billboard aliasing across overlapping points;
@@ -118,26 +256,315 @@ public class UIGLPointCloud extends UIPointCloud {
     return this;
   }
 
+  /**
+   * Enables uploading only the ranges of points whose colors have changed
+   * since the previous frame. Each frame is compared against the colors that
+   * were last uploaded, and nothing at all is sent when the frame has not
+   * changed. This is a big win for models where most points are static.
+   *
+   * @param dirtyRangeUploadEnabled Whether to upload only changed ranges
+   * @return this
+   */
+  public UIGLPointCloud setDirtyRangeUploadEnabled(boolean dirtyRangeUploadEnabled) {
+    if (this.dirtyRangeUploadEnabled != dirtyRangeUploadEnabled) {
+      this.dirtyRangeUploadEnabled = dirtyRangeUploadEnabled;
+      this.needsFullUpload = true;
+    }
+    return this;
+  }
+
+  /**
+   * Streams colors through a ring of buffer segments. Each frame is written
+   * into the next segment while the GPU may still be drawing from the
+   * previous ones. A fence guards each segment so that we never overwrite one
+   * the GPU has not finished reading. If the ring is too small for the
+   * hardware, ringStats.fenceWaits will climb. A segment still not released
+   * after the wait is written through glBufferSubData instead, counted in
+   * ringStats.fallbacks.
+   *
+   * @param ringSize Number of segments, or 0 to disable streaming
+   * @return this
+   */
+  public UIGLPointCloud setStreamingRingSize(int ringSize) {
+    if (ringSize == 1 || ringSize < 0) {
+      throw new IllegalArgumentException("Streaming ring must have 0 or at least 2 segments: " + ringSize);
+    }
+    this.requestedRingSize = ringSize;
+    return this;
+  }
+
+  private void putColors(IntBuffer buffer, int[] colors) {
+    putColors(buffer, colors, this.pointIndex, this.contiguousOffset);
+  }
+
+  /**
+   * Packs colors into the buffer in draw order
+   *
+   * @param buffer Destination buffer
+   * @param colors Engine colors
+   * @param pointIndex Index of the point drawn at each position
+   * @param contiguousOffset Offset of the first point if they are drawn in
+   *   index order, otherwise -1
+   */
+  static void putColors(IntBuffer buffer, int[] colors, int[] pointIndex, int contiguousOffset) {
+    if (contiguousOffset >= 0) {
+      buffer.put(colors, contiguousOffset, pointIndex.length);
+    } else {
+      for (int i = 0; i < pointIndex.length; ++i) {
+        buffer.put(colors[pointIndex[i]]);
+      }
+    }
+  }
+
+  private void releaseRing(GL2 gl2) {
+    if (this.ringFences != null) {
+      GL3ES3 gl3 = (GL3ES3) gl2;
+      for (int i = 0; i < this.ringFences.length; ++i) {
+        if (this.ringFences[i] != 0) {
+          gl3.glDeleteSync(this.ringFences[i]);
+        }
+      }
+      this.ringFences = null;
+    }
+    if (this.ringBufferObjectName != 0) {
+      gl2.glDeleteBuffers(1, new int[] { this.ringBufferObjectName }, 0);
+      this.ringBufferObjectName = 0;
+    }
+    this.ringSize = 0;
+  }
+
+  private void allocateRing(GL2 gl2, int ringSize) {
+    int[] name = new int[1];
+    gl2.glGenBuffers(1, name, 0);
+    this.ringBufferObjectName = name[0];
+    gl2.glBindBuffer(GL.GL_ARRAY_BUFFER, this.ringBufferObjectName);
+    gl2.glBufferData(GL.GL_ARRAY_BUFFER, (long) ringSize * this.model.size * COLOR_BYTES_PER_POINT, null, GL2.GL_STREAM_DRAW);
+    this.ringUsesFences =
+      (gl2 instanceof GL3ES3) &&
+      gl2.isFunctionAvailable("glFenceSync") &&
+      gl2.isFunctionAvailable("glMapBufferRange");
+    if (this.ringUsesFences) {
+      this.ringFences = new long[ringSize];
+    }
+    this.ringSize = ringSize;
+    this.ringSegment = 0;
+  }
+
+  /**
+   * Writes the colors into the next ring segment, if there's a new frame.
+   *
+   * @return Byte offset of the segment to draw from
+   */
+  private int streamRing(GL2 gl2, int[] colors, long frame) {
+    int segmentBytes = this.model.size * COLOR_BYTES_PER_POINT;
+    gl2.glBindBuffer(GL.GL_ARRAY_BUFFER, this.ringBufferObjectName);
+    if (frame == this.uploadedFrame) {
+      // Nothing new, keep drawing from the segment we already wrote
+      return this.ringSegment * segmentBytes;
+    }
+
+    int segment = (this.ringSegment + 1) % this.ringSize;
+    int offset = segment * segmentBytes;
+    ByteBuffer mapped = null;
+    if (this.ringUsesFences) {
+      boolean released = true;
+      long fence = this.ringFences[segment];
+      if (fence != 0) {
+        GL3ES3 gl3 = (GL3ES3) gl2;
+        int status = gl3.glClientWaitSync(fence, 0, 0);
+        if (status == GL3ES3.GL_TIMEOUT_EXPIRED) {
+          ++this.ringStats.fenceWaits;
+          long waitStart = System.nanoTime();
+          status = gl3.glClientWaitSync(fence, GL3ES3.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+          this.ringStats.fenceWaitNanos += System.nanoTime() - waitStart;
+        }
+        released =
+          (status == GL3ES3.GL_ALREADY_SIGNALED) ||
+          (status == GL3ES3.GL_CONDITION_SATISFIED);
+        gl3.glDeleteSync(fence);
+        this.ringFences[segment] = 0;
+      }
+      if (released) {
+        // The fence guarantees the GPU is done with this segment, so the
+        // driver need not synchronize the mapping
+        mapped = gl2.glMapBufferRange(
+          GL.GL_ARRAY_BUFFER,
+          offset,
+          segmentBytes,
+          GL.GL_MAP_WRITE_BIT | GL.GL_MAP_UNSYNCHRONIZED_BIT | GL.GL_MAP_INVALIDATE_RANGE_BIT
+        );
+      }
+      if (mapped == null) {
+        // The GPU may still be reading this segment, let the driver
+        // synchronize the write for this frame
+        ++this.ringStats.fallbacks;
+      }
+    }
+    if (mapped != null) {
+      putColors(mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), colors);
+      gl2.glUnmapBuffer(GL.GL_ARRAY_BUFFER);
+    } else {
+      // Without sync objects, rotating segments still spreads out the
+      // driver's implicit synchronization
+      putColors(this.colorData, colors);
+      this.colorData.position(0);
+      gl2.glBufferSubData(GL.GL_ARRAY_BUFFER, offset, segmentBytes, this.colorData);
+    }
+    this.ringSegment = segment;
+    ++this.ringStats.frames;
+    return offset;
+  }
+
+  private void uploadAll(PGL pgl, int[] colors) {
+    putColors(this.colorData, colors);
+    this.colorData.position(0);
+    pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * COLOR_BYTES_PER_POINT, this.colorData, PGL.STREAM_DRAW);
+  }
+
+  private void uploadDirtyRanges(PGL pgl, int[] colors) {
+    // The color buffer still holds what was last uploaded, compare against it
+    int numRanges = 0;
+    int start = -1;
+    int end = -1;
+    for (int i = 0; i < this.pointIndex.length; ++i) {
+      int c = colors[this.pointIndex[i]];
+      if (c != this.colorData.get(i)) {
+        this.colorData.put(i, c);
+        if (start < 0) {
+          start = i;
+        } else if (i - end > DIRTY_RANGE_GAP) {
+          if (numRanges < MAX_DIRTY_RANGES) {
+            this.dirtyRanges[2*numRanges] = start;
+            this.dirtyRanges[2*numRanges + 1] = end;
+            ++numRanges;
+            start = i;
+          }
+          // Otherwise we're out of ranges, keep growing the last one
+        }
+        end = i + 1;
+      }
+    }
+    if (start >= 0) {
+      if (numRanges == MAX_DIRTY_RANGES) {
+        --numRanges;
+        start = this.dirtyRanges[2*numRanges];
+      }
+      this.dirtyRanges[2*numRanges] = start;
+      this.dirtyRanges[2*numRanges + 1] = end;
+      ++numRanges;
+    }
+
+    for (int r = 0; r < numRanges; ++r) {
+      int rangeStart = this.dirtyRanges[2*r];
+      int rangeEnd = this.dirtyRanges[2*r + 1];
+      this.colorData.position(rangeStart);
+      pgl.bufferSubData(
+        PGL.ARRAY_BUFFER,
+        rangeStart * COLOR_BYTES_PER_POINT,
+        (rangeEnd - rangeStart) * COLOR_BYTES_PER_POINT,
+        this.colorData
+      );
+    }
+    this.colorData.position(0);
+  }
+
+  /**
+   * Uploads the colors for full detail drawing, using whichever of the
+   * streaming modes is enabled. Leaves the color buffer bound.
+   *
+   * @return Byte offset of the colors in the bound buffer
+   */
+  private int uploadColors(PGL pgl, GL2 gl2, int[] colors, long frame) {
+    if (this.positionsDirty) {
+      // Point order has changed, re-upload positions and all colors
+      buildPositions();
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, this.positionBufferObjectName);
+      pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * POSITION_BYTES_PER_POINT, this.positionData, PGL.STATIC_DRAW);
+      this.needsFullUpload = true;
+      this.uploadedFrame = -1;
+    }
+
+    if (this.requestedRingSize != this.ringSize) {
+      releaseRing(gl2);
+      if (this.requestedRingSize > 0) {
+        allocateRing(gl2, this.requestedRingSize);
+      }
+      this.needsFullUpload = true;
+      this.uploadedFrame = -1;
+    }
+
+    int colorOffset = 0;
+    if (this.ringSize > 0) {
+      colorOffset = streamRing(gl2, colors, frame);
+    } else {
+      // Bind to our color buffer object, place the new color data
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, this.colorBufferObjectName);
+      if (!this.dirtyRangeUploadEnabled || this.needsFullUpload) {
+        uploadAll(pgl, colors);
+        this.needsFullUpload = false;
+      } else if (frame != this.uploadedFrame) {
+        uploadDirtyRanges(pgl, colors);
+      }
+    }
+    this.uploadedFrame = frame;
+    return colorOffset;
+  }
+
+  /**
+   * Uploads the colors of a decimated level, and its positions if that level
+   * was not the last one drawn. Leaves the level color buffer bound.
+   */
+  private void uploadLevel(GL2 gl2, PointLevelOfDetail.Level level, int[] colors) {
+    if (this.levelPositionBufferObjectName == 0) {
+      int[] names = new int[2];
+      gl2.glGenBuffers(2, names, 0);
+      this.levelPositionBufferObjectName = names[0];
+      this.levelColorBufferObjectName = names[1];
+    }
+    if (level != this.uploadedLevel) {
+      gl2.glBindBuffer(GL.GL_ARRAY_BUFFER, this.levelPositionBufferObjectName);
+      gl2.glBufferData(GL.GL_ARRAY_BUFFER, level.size() * POSITION_BYTES_PER_POINT, level.getVertexBuffer(), GL.GL_STATIC_DRAW);
+      this.uploadedLevel = level;
+    }
+    if ((this.levelColorData == null) || (this.levelColorData.capacity() < level.size())) {
+      this.levelColorData = ByteBuffer
+        .allocateDirect(level.size() * COLOR_BYTES_PER_POINT)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asIntBuffer();
+    }
+    this.levelColorData.position(0);
+    for (int index : level.colorIndex) {
+      this.levelColorData.put(colors[index]);
+    }
+    this.levelColorData.position(0);
+    gl2.glBindBuffer(GL.GL_ARRAY_BUFFER, this.levelColorBufferObjectName);
+    gl2.glBufferData(GL.GL_ARRAY_BUFFER, level.size() * COLOR_BYTES_PER_POINT, this.levelColorData, GL2.GL_STREAM_DRAW);
+  }
+
   @Override
   protected void onDraw(UI ui, PGraphics pg) {
     int[] colors = this.lx.getColors();
+    long frame = this.lx.getFrameSequence();
 
-    // Put our new colors in the vertex data
-    int i = 0;
-    for (LXPoint p : this.model.points) {
-      int c = colors[p.index];
-      this.vertexData.put(7*i + 3, (0xff & (c >> 16)) / 255f); // R
-      this.vertexData.put(7*i + 4, (0xff & (c >> 8)) / 255f); // G
-      this.vertexData.put(7*i + 5, (0xff & (c)) / 255f); // B
-      ++i;
-    }
+    PointLevelOfDetail.Level level = selectLevelOfDetail(pg);
+    int numVisibleRanges = (level == null) ? cull(pg) : -1;
 
     // Get PGL context
     PGL pgl = pg.beginPGL();
+    GL2 gl2 = (javax.media.opengl.GL2) ((PJOGL)pgl).gl;
 
-    // Bind to our vertex buffer object, place the new color data
-    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.vertexBufferObjectName);
-    pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * 7 * Float.SIZE/8, this.vertexData, PGL.DYNAMIC_DRAW);
+    int colorOffset = 0;
+    int positionBufferObjectName = this.positionBufferObjectName;
+    int drawCount = this.model.size;
+    long uploadStart = System.nanoTime();
+    if (level == null) {
+      colorOffset = uploadColors(pgl, gl2, colors, frame);
+    } else {
+      uploadLevel(gl2, level, colors);
+      positionBufferObjectName = this.levelPositionBufferObjectName;
+      drawCount = level.size();
+    }
+    this.uploadHistogram.record(System.nanoTime() - uploadStart);
 
     // Set up shader
     this.shader.bind();
@@ -145,8 +572,9 @@ public class UIGLPointCloud extends UIPointCloud {
     int colorLocation = pgl.getAttribLocation(this.shader.glProgram, "color");
     pgl.enableVertexAttribArray(vertexLocation);
     pgl.enableVertexAttribArray(colorLocation);
-    pgl.vertexAttribPointer(vertexLocation, 3, PGL.FLOAT, false, 7 * Float.SIZE/8, 0);
-    pgl.vertexAttribPointer(colorLocation, 4, PGL.FLOAT, false, 7 * Float.SIZE/8, 3 * Float.SIZE/8);
+    pgl.vertexAttribPointer(colorLocation, 4, PGL.UNSIGNED_BYTE, true, COLOR_BYTES_PER_POINT, colorOffset);
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, positionBufferObjectName);
+    pgl.vertexAttribPointer(vertexLocation, 3, PGL.FLOAT, false, POSITION_BYTES_PER_POINT, 0);
 
     this.shader.set("pointSize", this.pointSize);
     if (this.pointSizeAttenuation != null) {
@@ -156,7 +584,6 @@ public class UIGLPointCloud extends UIPointCloud {
     }
 
     // GL2 properties
-    GL2 gl2 = (javax.media.opengl.GL2) ((PJOGL)pgl).gl;
     gl2.glEnable(GL2.GL_POINT_SPRITE);
     gl2.glEnable(GL2.GL_POINT_SMOOTH);
     gl2.glDisable(GL2.GL_TEXTURE_2D);
@@ -168,7 +595,21 @@ public class UIGLPointCloud extends UIPointCloud {
     }
 
     // Draw the arrays
-    pgl.drawArrays(PGL.POINTS, 0, this.model.size);
+    if (numVisibleRanges > 0) {
+      gl2.glMultiDrawArrays(GL2.GL_POINTS, this.visibleFirst, 0, this.visibleCount, 0, numVisibleRanges);
+    } else if (numVisibleRanges < 0) {
+      pgl.drawArrays(PGL.POINTS, 0, drawCount);
+    }
+    if (this.ringUsesFences && (this.ringSize > 0) && (level == null)) {
+      // Fence the segment we just drew from, replacing any older fence if
+      // the same segment was drawn again
+      GL3ES3 gl3 = (GL3ES3) gl2;
+      if (this.ringFences[this.ringSegment] != 0) {
+        gl3.glDeleteSync(this.ringFences[this.ringSegment]);
+      }
+      this.ringFences[this.ringSegment] =
+        gl3.glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
 
     // Unbind
     if (this.alphaTestEnabled) {
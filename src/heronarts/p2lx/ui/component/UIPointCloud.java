@@ -24,15 +24,24 @@
 
 package heronarts.p2lx.ui.component;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.media.opengl.GL2;
 
 import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
+import heronarts.p2lx.LatencyHistogram;
 import heronarts.p2lx.P2LX;
 import heronarts.p2lx.ui.UI;
 import heronarts.p2lx.ui.UI3dComponent;
 import processing.core.PGraphics;
+import processing.core.PMatrix3D;
 import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
 import processing.opengl.PJOGL;
 
 /**
@@ -51,6 +60,70 @@ public class UIPointCloud extends UI3dComponent {
 
   protected float[] pointSizeAttenuation = null;
 
+  /**
+   * Number of point clouds created, used to tell their histograms apart
+   */
+  private static final AtomicInteger cloudCount = new AtomicInteger(0);
+
+  /**
+   * Time spent preparing and uploading colors each frame. Registered with
+   * the UI while this point cloud is part of it.
+   */
+  public final LatencyHistogram uploadHistogram;
+
+  /**
+   * Points in the order they are submitted to GL. This is model order,
+   * unless culling is enabled, in which case it is the spatial index order
+   * so that each region of space is a contiguous range.
+   */
+  protected LXPoint[] points;
+
+  /**
+   * Index into the color array of each point, in submission order
+   */
+  protected int[] pointIndex;
+
+  /**
+   * Visible ranges computed by the last call to cull()
+   */
+  protected int[] visibleFirst = null;
+
+  protected int[] visibleCount = null;
+
+  private PointOctree octree = null;
+
+  private PointOctree.Query cullQuery = null;
+
+  private boolean cullingEnabled = false;
+
+  private float cullingDistance = 0;
+
+  private PointLevelOfDetail levelOfDetail = null;
+
+  private boolean levelOfDetailEnabled = false;
+
+  /**
+   * Largest on-screen voxel size for a decimated level, 0 to use the
+   * point size
+   */
+  private float levelOfDetailPixels = 0;
+
+  /**
+   * Client-side vertex array, built lazily on first draw since subclasses
+   * may not need it
+   */
+  private FloatBuffer vertexArray = null;
+
+  /**
+   * Client-side color array, either packed ints in BGRA byte order or
+   * RGB bytes, depending on driver support
+   */
+  private ByteBuffer colorArray = null;
+
+  private IntBuffer colorArrayInts = null;
+
+  private boolean bgraSupported = false;
+
   /**
    * Point cloud for everything in the LX instance
    *
@@ -69,6 +142,158 @@ public class UIPointCloud extends UI3dComponent {
   public UIPointCloud(P2LX lx, LXModel model) {
     this.lx = lx;
     this.model = model;
+    this.uploadHistogram = new LatencyHistogram(UI.uiClassName(this, null) + " #" + cloudCount.incrementAndGet() + " upload");
+    setPointOrder(model.points.toArray(new LXPoint[model.size]));
+  }
+
+  @Override
+  protected void onAddToUI(UI ui) {
+    ui.addHistogram(this.uploadHistogram);
+  }
+
+  @Override
+  protected void onRemoveFromUI(UI ui) {
+    ui.removeHistogram(this.uploadHistogram);
+  }
+
+  private void setPointOrder(LXPoint[] points) {
+    this.points = points;
+    this.pointIndex = new int[points.length];
+    for (int i = 0; i < points.length; ++i) {
+      this.pointIndex[i] = points[i].index;
+    }
+    onPointOrderChanged();
+  }
+
+  /**
+   * Subclasses override to rebuild anything derived from the points or
+   * pointIndex arrays, which are replaced when culling is toggled.
+   */
+  protected void onPointOrderChanged() {
+    this.vertexArray = null;
+  }
+
+  /**
+   * Enables view frustum culling. An octree is built once from the model,
+   * and each frame only the parts of it inside the camera's view are drawn.
+   * Note that this reorders the points as they are submitted to GL.
+   *
+   * @param cullingEnabled Whether to cull points outside the view
+   * @return this
+   */
+  public UIPointCloud setCullingEnabled(boolean cullingEnabled) {
+    if (this.cullingEnabled != cullingEnabled) {
+      this.cullingEnabled = cullingEnabled;
+      if (cullingEnabled) {
+        if (this.octree == null) {
+          this.octree = new PointOctree(this.model);
+          this.cullQuery = this.octree.new Query();
+          this.visibleFirst = new int[this.octree.getNumLeaves()];
+          this.visibleCount = new int[this.octree.getNumLeaves()];
+        }
+        setPointOrder(this.octree.points);
+      } else {
+        setPointOrder(this.model.points.toArray(new LXPoint[this.model.size]));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Sets a maximum distance from the camera, beyond which points are culled.
+   * Only respected when culling is enabled.
+   *
+   * @param cullingDistance Maximum distance from the eye, or 0 for no limit
+   * @return this
+   */
+  public UIPointCloud setCullingDistance(float cullingDistance) {
+    this.cullingDistance = cullingDistance;
+    return this;
+  }
+
+  /**
+   * Enables level of detail. A hierarchy of voxel-decimated versions of the
+   * model is computed once, and when the camera is far enough away that a
+   * level's voxels are no bigger than a point on screen, that level is drawn
+   * instead of the full model. Full detail comes back as the camera moves in.
+   * Culling is not applied to decimated levels.
+   *
+   * @param levelOfDetailEnabled Whether to decimate distant models
+   * @return this
+   */
+  public UIPointCloud setLevelOfDetailEnabled(boolean levelOfDetailEnabled) {
+    this.levelOfDetailEnabled = levelOfDetailEnabled;
+    if (levelOfDetailEnabled && (this.levelOfDetail == null)) {
+      this.levelOfDetail = new PointLevelOfDetail(this.model);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the largest on-screen size, in pixels, that a voxel of a decimated
+   * level may have. Larger values decimate more aggressively.
+   *
+   * @param levelOfDetailPixels Voxel size in pixels, or 0 to use the point size
+   * @return this
+   */
+  public UIPointCloud setLevelOfDetailThreshold(float levelOfDetailPixels) {
+    this.levelOfDetailPixels = levelOfDetailPixels;
+    return this;
+  }
+
+  /**
+   * Selects a decimated level to draw given the current camera
+   *
+   * @param pg Graphics context, with camera and perspective set
+   * @return Level to draw, or null for full detail
+   */
+  PointLevelOfDetail.Level selectLevelOfDetail(PGraphics pg) {
+    if (!this.levelOfDetailEnabled) {
+      return null;
+    }
+    float pixels = (this.levelOfDetailPixels > 0) ? this.levelOfDetailPixels : this.pointSize;
+    return this.levelOfDetail.select(pg, pixels);
+  }
+
+  /**
+   * Computes the ranges of points that are visible from the current camera,
+   * placing them in visibleFirst and visibleCount.
+   *
+   * @param pg Graphics context, with the camera and perspective already set
+   * @return Number of visible ranges, or -1 if everything should be drawn
+   */
+  protected final int cull(PGraphics pg) {
+    if (!this.cullingEnabled || !(pg instanceof PGraphicsOpenGL)) {
+      return -1;
+    }
+    PGraphicsOpenGL pgOpenGL = (PGraphicsOpenGL) pg;
+    pgOpenGL.updateProjmodelview();
+
+    // Extract frustum planes from the combined projection and modelview
+    PMatrix3D m = pgOpenGL.projmodelview;
+    float[] planes = this.cullQuery.planes;
+    setPlane(planes, 0, m.m30 + m.m00, m.m31 + m.m01, m.m32 + m.m02, m.m33 + m.m03); // Left
+    setPlane(planes, 1, m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03); // Right
+    setPlane(planes, 2, m.m30 + m.m10, m.m31 + m.m11, m.m32 + m.m12, m.m33 + m.m13); // Bottom
+    setPlane(planes, 3, m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13); // Top
+    setPlane(planes, 4, m.m30 + m.m20, m.m31 + m.m21, m.m32 + m.m22, m.m33 + m.m23); // Near
+    setPlane(planes, 5, m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23); // Far
+
+    // Eye position is the origin of camera space
+    PMatrix3D inv = pgOpenGL.modelviewInv;
+    this.cullQuery.eyeX = inv.m03;
+    this.cullQuery.eyeY = inv.m13;
+    this.cullQuery.eyeZ = inv.m23;
+    this.cullQuery.maxDistance = this.cullingDistance;
+
+    return this.cullQuery.run(this.visibleFirst, this.visibleCount);
+  }
+
+  private static void setPlane(float[] planes, int i, float a, float b, float c, float d) {
+    planes[4*i] = a;
+    planes[4*i + 1] = b;
+    planes[4*i + 2] = c;
+    planes[4*i + 3] = d;
   }
 
   /**
@@ -110,8 +335,62 @@ public class UIPointCloud extends UI3dComponent {
     return this;
   }
 
+  private void buildArrays(GL2 gl2) {
+    int size = this.points.length;
+    this.vertexArray = ByteBuffer
+      .allocateDirect(size * 3 * Float.SIZE/8)
+      .order(ByteOrder.nativeOrder())
+      .asFloatBuffer();
+    for (LXPoint p : this.points) {
+      this.vertexArray.put(p.x);
+      this.vertexArray.put(p.y);
+      this.vertexArray.put(p.z);
+    }
+    this.vertexArray.position(0);
+
+    this.bgraSupported =
+      gl2.isExtensionAvailable("GL_ARB_vertex_array_bgra") ||
+      gl2.isExtensionAvailable("GL_EXT_vertex_array_bgra");
+    if (this.bgraSupported) {
+      // Little-endian ints are BGRA in memory, so the colors go in as-is
+      this.colorArray = ByteBuffer
+        .allocateDirect(size * Integer.SIZE/8)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      this.colorArrayInts = this.colorArray.asIntBuffer();
+    } else {
+      this.colorArray = ByteBuffer
+        .allocateDirect(size * 3)
+        .order(ByteOrder.nativeOrder());
+    }
+  }
+
+  private void fillColorArray(int[] colors, int[] index) {
+    if (this.bgraSupported) {
+      this.colorArrayInts.position(0);
+      for (int i = 0; i < index.length; ++i) {
+        // Force opaque, matching the RGB path
+        this.colorArrayInts.put(0xff000000 | colors[index[i]]);
+      }
+      this.colorArrayInts.position(0);
+    } else {
+      this.colorArray.position(0);
+      for (int i = 0; i < index.length; ++i) {
+        int c = colors[index[i]];
+        this.colorArray.put((byte) (0xff & (c >>> 16)));
+        this.colorArray.put((byte) (0xff & (c >>> 8)));
+        this.colorArray.put((byte) (0xff & c));
+      }
+      this.colorArray.position(0);
+    }
+  }
+
   @Override
   protected void onDraw(UI ui, PGraphics pg) {
+    PointLevelOfDetail.Level level = selectLevelOfDetail(pg);
+    int numVisibleRanges = (level == null) ? cull(pg) : -1;
+    if (numVisibleRanges == 0) {
+      return;
+    }
 
     PGL pgl = pg.beginPGL();
     GL2 gl2 = (javax.media.opengl.GL2) ((PJOGL)pgl).gl;
@@ -128,18 +407,31 @@ public class UIPointCloud extends UI3dComponent {
     gl2.glEnable(GL2.GL_POINT_SMOOTH);
     gl2.glDisable(GL2.GL_TEXTURE_2D);
 
-    int[] colors = this.lx.getColors();
-    gl2.glBegin(GL2.GL_POINTS);
-    for (LXPoint p : this.model.points) {
-      int c = colors[p.index];
-      gl2.glColor3ub(
-        (byte) (0xff & (c >>> 16)),
-        (byte) (0xff & (c >>> 8)),
-        (byte) (0xff & c)
-      );
-      gl2.glVertex3f(p.x, p.y, p.z);
+    if (this.vertexArray == null) {
+      buildArrays(gl2);
+    }
+    long uploadStart = System.nanoTime();
+    int[] index = (level == null) ? this.pointIndex : level.colorIndex;
+    fillColorArray(this.lx.getColors(), index);
+    this.uploadHistogram.record(System.nanoTime() - uploadStart);
+
+    // Submit everything with a single draw call from client-side arrays
+    gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+    gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+    gl2.glVertexPointer(3, GL2.GL_FLOAT, 0, (level == null) ? this.vertexArray : level.getVertexBuffer());
+    if (this.bgraSupported) {
+      gl2.glColorPointer(GL2.GL_BGRA, GL2.GL_UNSIGNED_BYTE, 0, this.colorArray);
+    } else {
+      gl2.glColorPointer(3, GL2.GL_UNSIGNED_BYTE, 0, this.colorArray);
+    }
+    if (numVisibleRanges > 0) {
+      gl2.glMultiDrawArrays(GL2.GL_POINTS, this.visibleFirst, 0, this.visibleCount, 0, numVisibleRanges);
+    } else {
+      gl2.glDrawArrays(GL2.GL_POINTS, 0, index.length);
     }
-    gl2.glEnd();
+    gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
+    gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
 
     pg.endPGL();
   }
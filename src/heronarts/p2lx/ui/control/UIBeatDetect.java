@@ -25,11 +25,15 @@
 package heronarts.p2lx.ui.control;
 
 import processing.core.PApplet;
+import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.event.MouseEvent;
+import heronarts.lx.LXLoopTask;
 import heronarts.lx.audio.FrequencyGate;
 import heronarts.lx.color.LXColor;
 import heronarts.p2lx.ui.UI;
+import heronarts.p2lx.ui.UI2dComponent;
+import heronarts.p2lx.ui.UI2dContainer;
 import heronarts.p2lx.ui.UIWindow;
 import heronarts.p2lx.ui.component.UIKnob;
 
@@ -46,8 +50,23 @@ public class UIBeatDetect extends UIWindow {
 
   private float bandX = 0, bandWidth = 0;
 
+  private final Meters meters;
+
+  private final UI ui;
+
+  private final MeterTimer meterTimer = new MeterTimer();
+
+  private double meterIntervalMs = 1000. / 30;
+
+  /**
+   * Values the meters were last drawn with: gate value, level, threshold,
+   * floor, band range and each EQ band
+   */
+  private final float[] meterValues;
+
   public UIBeatDetect(UI ui, FrequencyGate gate, float x, float y) {
     super(ui, "BEAT DETECT", x, y, WIDTH, HEIGHT);
+    this.ui = ui;
     this.gate = gate;
 
     float yp = this.height - 96;
@@ -73,12 +92,107 @@ public class UIBeatDetect extends UIWindow {
 
     this.piece = (this.eqWidth-2) / this.eqBands;
 
+    this.meters = new Meters(ui, this.masterX - 1, this.eqTop, this.kickX + this.kickWidth + 2 - this.masterX, this.eqHeight + 1);
+    this.meters.addToContainer(this);
+    this.meterValues = new float[6 + this.eqBands];
   }
 
+  /**
+   * The meter refresh task runs while this window is in a container, and is
+   * removed from the UI when it is taken out.
+   */
   @Override
-  public void onDraw(UI ui, PGraphics pg) {
-    super.onDraw(ui, pg);
+  public UI2dComponent addToContainer(UI2dContainer container) {
+    super.addToContainer(container);
+    this.ui.addLoopTask(this.meterTimer);
+    return this;
+  }
+
+  @Override
+  public UI2dComponent removeFromContainer() {
+    super.removeFromContainer();
+    this.ui.removeLoopTask(this.meterTimer);
+    return this;
+  }
+
+  /**
+   * Sets how often the level meters and EQ bars are repainted. The rest of
+   * the window is only redrawn when its controls change.
+   *
+   * @param framesPerSecond Meter refresh rate
+   * @return this
+   */
+  public UIBeatDetect setMeterRate(float framesPerSecond) {
+    this.meterIntervalMs = 1000. / framesPerSecond;
+    return this;
+  }
+
+  /**
+   * Requests a repaint of the meters whenever the refresh interval elapses,
+   * if they are showing and anything they display has changed
+   */
+  private class MeterTimer implements LXLoopTask {
+
+    private double elapsedMs = 0;
+
+    public void loop(double deltaMs) {
+      this.elapsedMs += deltaMs;
+      if (this.elapsedMs >= meterIntervalMs) {
+        this.elapsedMs = this.elapsedMs % meterIntervalMs;
+        if (isVisible() && meters.isVisible() && updateMeterValues()) {
+          meters.redraw();
+        }
+      }
+    }
+  }
+
+  /**
+   * Samples everything the meters display
+   *
+   * @return Whether anything changed since the last sample
+   */
+  private boolean updateMeterValues() {
+    boolean changed = false;
+    changed |= setMeterValue(0, this.gate.getValuef());
+    changed |= setMeterValue(1, this.gate.getLevelf());
+    changed |= setMeterValue(2, this.gate.threshold.getValuef());
+    changed |= setMeterValue(3, this.gate.floor.getValuef());
+    changed |= setMeterValue(4, this.gate.minBand.getValuei());
+    changed |= setMeterValue(5, this.gate.avgBands.getValuei());
+    for (int i = 0; i < this.eqBands; ++i) {
+      changed |= setMeterValue(6 + i, this.gate.eq.getBandf(i));
+    }
+    return changed;
+  }
+
+  private boolean setMeterValue(int index, float value) {
+    if (this.meterValues[index] != value) {
+      this.meterValues[index] = value;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Level meters and EQ bars, which change every frame. Drawn as a separate
+   * component so that repainting them leaves the knobs alone.
+   */
+  private class Meters extends UI2dComponent {
+
+    private Meters(UI ui, float x, float y, float w, float h) {
+      super(x, y, w, h);
+      setBackgroundColor(ui.theme.getWindowBackgroundColor());
+    }
+
+    @Override
+    protected void onDraw(UI ui, PGraphics pg) {
+      pg.translate(-this.x, -this.y);
+      drawMeters(ui, pg);
+      pg.translate(this.x, this.y);
+    }
+  }
 
+  private void drawMeters(UI ui, PGraphics pg) {
     int highlight = ui.theme.getPrimaryColor();
 
     pg.stroke(0xff999999);
@@ -88,28 +202,24 @@ public class UIBeatDetect extends UIWindow {
     pg.fill(LXColor.hsb(LXColor.h(highlight), LXColor.s(highlight), 100*this.gate.getValuef()));
     pg.rect(this.kickX, this.eqTop, this.kickWidth, this.eqHeight);
 
-    pg.noStroke();
-
     // Band range
     pg.noStroke();
     pg.fill(0xff444444);
-    this.bandX = this.eqX + 1 + (this.piece * this.gate.minBand.getValuei());
-    this.bandWidth = 1 + this.piece * PApplet.min(this.gate.avgBands.getValuei(), this.eqBands - this.gate.minBand.getValuei());
+    int minBand = this.gate.minBand.getValuei();
+    int avgBands = this.gate.avgBands.getValuei();
+    this.bandX = this.eqX + 1 + (this.piece * minBand);
+    this.bandWidth = 1 + this.piece * PApplet.min(avgBands, this.eqBands - minBand);
     pg.rect(this.bandX, this.eqTop + 1, this.bandWidth, this.eqHeight- 1);
-    if ((this.gate.minBand.getValuei() + this.gate.avgBands.getValuei()) <= this.eqBands) {
+    if ((minBand + avgBands) <= this.eqBands) {
       pg.fill(0xff393939);
       pg.rect(this.bandX + this.bandWidth - this.piece, this.eqTop + 3, this.piece-1, this.eqHeight-5);
     }
 
-    // Eq bands
-    for (int i = 0; i < this.eqBands; ++i) {
-      if (i >= this.gate.minBand.getValuei() && (i < (this.gate.minBand.getValuei() + this.gate.avgBands.getValuei()))) {
-        pg.fill(highlight);
-      } else {
-        pg.fill(ui.theme.getSecondaryColor());
-      }
-      pg.rect(this.eqX + 2 + this.piece*i, this.eqBottom, this.piece-1, -(this.eqHeight-1)*this.gate.eq.getBandf(i));
-    }
+    // Eq bands, one batch per fill color
+    drawBands(pg, 0, minBand, ui.theme.getSecondaryColor());
+    drawBands(pg, minBand, Math.min(this.eqBands, minBand + avgBands), highlight);
+    drawBands(pg, minBand + avgBands, this.eqBands, ui.theme.getSecondaryColor());
+
     pg.fill(highlight);
     pg.rect(this.masterX + 1, this.eqBottom, this.masterWidth-1, -(this.eqHeight-1)*this.gate.getLevelf());
 
@@ -122,8 +232,24 @@ public class UIBeatDetect extends UIWindow {
     pg.stroke(0xffff6666);
     pg.line(this.masterX, threshY, this.masterX + this.masterWidth - 1, threshY);
     pg.line(this.eqX, threshY, this.eqX + this.eqWidth - 1, threshY);
+  }
 
-    redraw();
+  private void drawBands(PGraphics pg, int from, int to, int color) {
+    if (from >= to) {
+      return;
+    }
+    pg.fill(color);
+    pg.beginShape(PConstants.QUADS);
+    for (int i = from; i < to; ++i) {
+      float x0 = this.eqX + 2 + this.piece*i;
+      float x1 = x0 + this.piece - 1;
+      float y = this.eqBottom - (this.eqHeight-1)*this.gate.eq.getBandf(i);
+      pg.vertex(x0, this.eqBottom);
+      pg.vertex(x1, this.eqBottom);
+      pg.vertex(x1, y);
+      pg.vertex(x0, y);
+    }
+    pg.endShape();
   }
 
   private boolean bandDragging = false;
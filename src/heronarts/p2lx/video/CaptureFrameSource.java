@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.video;
+
+import processing.core.PApplet;
+import processing.video.Capture;
+
+/**
+ * Frame source reading from a camera. The device is opened the first time
+ * the source is opened and stays open until close() is called, so patterns
+ * can switch in and out without paying the device startup cost each time.
+ */
+public class CaptureFrameSource implements VideoFrameSource {
+
+  private final PApplet applet;
+
+  private final int width;
+
+  private final int height;
+
+  private Capture capture = null;
+
+  public CaptureFrameSource(PApplet applet, int width, int height) {
+    this.applet = applet;
+    this.width = width;
+    this.height = height;
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  public synchronized void open() {
+    if (this.capture == null) {
+      this.capture = new Capture(this.applet, this.width, this.height);
+    }
+  }
+
+  public synchronized int[] read() {
+    if ((this.capture == null) || !this.capture.available()) {
+      return null;
+    }
+    this.capture.read();
+    this.capture.loadPixels();
+    return this.capture.pixels;
+  }
+
+  /**
+   * The camera thread gives no notification of new frames that can be
+   * waited on, so this sleeps for half the capture frame period.
+   */
+  public void awaitFrame(long timeoutMillis) throws InterruptedException {
+    int frameRate;
+    synchronized (this) {
+      frameRate = (this.capture != null) ? this.capture.frameRate : 0;
+    }
+    long sleepMillis = (frameRate > 0) ? Math.max(1, 500 / frameRate) : timeoutMillis;
+    Thread.sleep(Math.min(sleepMillis, timeoutMillis));
+  }
+
+  public synchronized void close() {
+    if (this.capture != null) {
+      this.capture.dispose();
+      this.capture = null;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.video;
+
+/**
+ * Paces a frame source at a fixed rate, or not at all if the rate is zero
+ */
+class FrameClock {
+
+  private final long intervalNanos;
+
+  private volatile long next = -1;
+
+  FrameClock(float framesPerSecond) {
+    this.intervalNanos = (framesPerSecond > 0) ? (long) (1000000000L / framesPerSecond) : 0;
+  }
+
+  /**
+   * Whether a new frame is due. Frames that fall due while the caller was
+   * not asking are skipped rather than delivered in a burst.
+   *
+   * @return true if a frame should be produced now
+   */
+  boolean tick() {
+    if (this.intervalNanos == 0) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (this.next < 0) {
+      this.next = now;
+    }
+    if (now < this.next) {
+      return false;
+    }
+    this.next += this.intervalNanos;
+    if (this.next <= now) {
+      this.next = now + this.intervalNanos;
+    }
+    return true;
+  }
+
+  /**
+   * Sleeps until the next frame is due, or the timeout passes
+   *
+   * @param timeoutMillis Longest time to sleep, in milliseconds
+   * @throws InterruptedException If the thread is interrupted
+   */
+  void await(long timeoutMillis) throws InterruptedException {
+    long next = this.next;
+    if ((this.intervalNanos == 0) || (next < 0)) {
+      return;
+    }
+    long waitNanos = Math.min(next - System.nanoTime(), timeoutMillis * 1000000L);
+    if (waitNanos > 0) {
+      Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+    }
+  }
+
+  void reset() {
+    this.next = -1;
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Frame source playing back a file of raw frames, looping at the end. The file
+ * is a sequence of frames, each width * height big-endian 32-bit ARGB pixels
+ * in row order, and is memory-mapped so playback does no file I/O of its own.
+ * Files larger than 2GB only play back the frames in their first 2GB.
+ */
+public class RawFileFrameSource implements VideoFrameSource {
+
+  private final File file;
+
+  private final int width;
+
+  private final int height;
+
+  private final FrameClock clock;
+
+  private final int[] frame;
+
+  private IntBuffer data = null;
+
+  private int numFrames = 0;
+
+  private int frameIndex = 0;
+
+  /**
+   * Creates a file source
+   *
+   * @param file Raw frame file
+   * @param width Frame width
+   * @param height Frame height
+   * @param framesPerSecond Playback rate, or 0 to return a frame on every read
+   */
+  public RawFileFrameSource(File file, int width, int height, float framesPerSecond) {
+    this.file = file;
+    this.width = width;
+    this.height = height;
+    this.clock = new FrameClock(framesPerSecond);
+    this.frame = new int[width * height];
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  public synchronized void open() {
+    if (this.data != null) {
+      return;
+    }
+    long frameBytes = 4L * this.frame.length;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+      try {
+        long numFrames = Math.min(raf.length(), Integer.MAX_VALUE) / frameBytes;
+        if (numFrames == 0) {
+          throw new IllegalArgumentException("Raw frame file is smaller than one frame: " + this.file);
+        }
+        MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, numFrames * frameBytes);
+        this.data = mapped.asIntBuffer();
+        this.numFrames = (int) numFrames;
+        this.frameIndex = 0;
+        this.clock.reset();
+      } finally {
+        raf.close();
+      }
+    } catch (IOException iox) {
+      throw new RuntimeException("Could not map raw frame file: " + this.file, iox);
+    }
+  }
+
+  public synchronized int[] read() {
+    if ((this.data == null) || !this.clock.tick()) {
+      return null;
+    }
+    this.data.position(this.frameIndex * this.frame.length);
+    this.data.get(this.frame);
+    this.frameIndex = (this.frameIndex + 1) % this.numFrames;
+    return this.frame;
+  }
+
+  public void awaitFrame(long timeoutMillis) throws InterruptedException {
+    boolean open;
+    synchronized (this) {
+      open = (this.data != null);
+    }
+    if (open) {
+      this.clock.await(timeoutMillis);
+    } else {
+      Thread.sleep(timeoutMillis);
+    }
+  }
+
+  public synchronized void close() {
+    // The mapping is released when the buffer is collected
+    this.data = null;
+  }
+}
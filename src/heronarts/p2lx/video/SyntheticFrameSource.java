@@ -0,0 +1,102 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.video;
+
+import heronarts.lx.color.LXColor;
+
+/**
+ * Frame source generating a moving test pattern, for exercising the video
+ * path without a camera. Diagonal hue bands scroll across the frame, so
+ * every pixel changes on every frame.
+ */
+public class SyntheticFrameSource implements VideoFrameSource {
+
+  private static final int NUM_HUES = 360;
+
+  private final int width;
+
+  private final int height;
+
+  private final FrameClock clock;
+
+  private final int[] frame;
+
+  private final int[] hues = new int[NUM_HUES];
+
+  private int offset = 0;
+
+  /**
+   * Creates a synthetic source
+   *
+   * @param width Frame width
+   * @param height Frame height
+   * @param framesPerSecond Frame rate, or 0 to return a frame on every read
+   */
+  public SyntheticFrameSource(int width, int height, float framesPerSecond) {
+    this.width = width;
+    this.height = height;
+    this.clock = new FrameClock(framesPerSecond);
+    this.frame = new int[width * height];
+    for (int i = 0; i < NUM_HUES; ++i) {
+      this.hues[i] = LXColor.hsb(i, 100, 100);
+    }
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  public void open() {
+    this.clock.reset();
+  }
+
+  public int[] read() {
+    if (!this.clock.tick()) {
+      return null;
+    }
+    int i = 0;
+    for (int y = 0; y < this.height; ++y) {
+      int hue = (this.offset + y) % NUM_HUES;
+      for (int x = 0; x < this.width; ++x) {
+        this.frame[i++] = this.hues[hue];
+        if (++hue == NUM_HUES) {
+          hue = 0;
+        }
+      }
+    }
+    this.offset = (this.offset + 1) % NUM_HUES;
+    return this.frame;
+  }
+
+  public void awaitFrame(long timeoutMillis) throws InterruptedException {
+    this.clock.await(timeoutMillis);
+  }
+
+  public void close() {}
+}
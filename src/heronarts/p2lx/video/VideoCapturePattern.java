@@ -26,38 +26,169 @@ package heronarts.p2lx.video;
 
 import heronarts.lx.transition.IrisTransition;
 import heronarts.p2lx.P2LX;
+import heronarts.p2lx.P2LXCanvasSampler;
+import heronarts.p2lx.P2LXGraphicsPattern;
 import heronarts.p2lx.P2LXPattern;
-import processing.video.Capture;
+import heronarts.p2lx.P2LXTripleBuffer;
 
+/**
+ * Pattern that shows video from a {@link VideoFrameSource}, a camera by
+ * default. Frames are read and sampled to the model on a dedicated ingest
+ * thread, and the engine picks up the latest complete frame without waiting,
+ * so a slow source never stalls the engine loop. The source stays open while
+ * the pattern is inactive unless setCloseOnInactive() is enabled.
+ */
 public class VideoCapturePattern extends P2LXPattern {
 
-  private Capture capture;
+  private final VideoFrameSource source;
+
+  /**
+   * Maps capture pixels to points, or null if they correspond by index
+   */
+  private final P2LXCanvasSampler sampler;
+
+  private final P2LXTripleBuffer frames;
+
+  private boolean closeOnInactive = false;
+
+  /**
+   * Longest the ingest thread waits on the source before checking whether
+   * it should stop
+   */
+  private static final long INGEST_TIMEOUT_MILLIS = 100;
+
+  /**
+   * Reads frames from the source while the pattern is active, otherwise null
+   */
+  private Thread ingest = null;
+
+  private volatile boolean ingesting = false;
 
   public VideoCapturePattern(P2LX lx) {
+    this(lx, lx.width, lx.height);
+  }
+
+  /**
+   * Creates a pattern capturing at the given size. Unless that matches the
+   * LX grid, each point samples the frame at its position within the model.
+   *
+   * @param lx LX instance
+   * @param captureWidth Capture width
+   * @param captureHeight Capture height
+   */
+  public VideoCapturePattern(P2LX lx, int captureWidth, int captureHeight) {
+    this(lx, new CaptureFrameSource(lx.applet, captureWidth, captureHeight));
+  }
+
+  /**
+   * Creates a pattern showing frames from the given source. Unless its frame
+   * size matches the LX grid, each point samples the frame at its position
+   * within the model.
+   *
+   * @param lx LX instance
+   * @param source Frame source
+   */
+  public VideoCapturePattern(P2LX lx, VideoFrameSource source) {
     super(lx);
-    this.capture = null;
+    this.source = source;
+    int captureWidth = source.getWidth();
+    int captureHeight = source.getHeight();
+    if ((captureWidth == lx.width) && (captureHeight == lx.height) && (lx.total == captureWidth * captureHeight)) {
+      this.sampler = null;
+    } else {
+      this.sampler = new P2LXCanvasSampler(lx.model, lx.total, captureWidth, captureHeight, P2LXGraphicsPattern.Sampling.BILINEAR, 1);
+    }
+    this.frames = new P2LXTripleBuffer(lx.total);
     setTransition(new IrisTransition(lx));
   }
 
+  /**
+   * Sets whether to close the frame source when the pattern goes inactive.
+   * Keeping it open avoids paying the source's startup cost, such as opening
+   * a camera, every time the pattern becomes active.
+   *
+   * @param closeOnInactive Whether to close the source when inactive
+   * @return this
+   */
+  public VideoCapturePattern setCloseOnInactive(boolean closeOnInactive) {
+    this.closeOnInactive = closeOnInactive;
+    return this;
+  }
+
+  public VideoFrameSource getSource() {
+    return this.source;
+  }
+
   @Override
   public void onActive() {
-    this.capture = new Capture(this.applet, this.lx.width, this.lx.height);
+    startIngest();
   }
 
   @Override
   public void onInactive() {
-    this.capture.dispose();
-    this.capture = null;
+    if (this.ingest != null) {
+      this.ingesting = false;
+      this.ingest.interrupt();
+      try {
+        this.ingest.join();
+      } catch (InterruptedException ix) {
+        Thread.currentThread().interrupt();
+      }
+      this.ingest = null;
+    }
+    if (this.closeOnInactive) {
+      this.source.close();
+    }
+  }
+
+  /**
+   * Opens the source and starts the ingest thread, if not already running.
+   * Also called from run(), since a channel's first pattern never receives
+   * onActive().
+   */
+  private void startIngest() {
+    if (this.ingest != null) {
+      return;
+    }
+    this.source.open();
+    this.ingesting = true;
+    this.ingest = new Thread("VideoCapturePattern ingest") {
+      @Override
+      public void run() {
+        ingest();
+      }
+    };
+    this.ingest.setDaemon(true);
+    this.ingest.start();
+  }
+
+  private void ingest() {
+    while (this.ingesting) {
+      int[] pixels = this.source.read();
+      if (pixels != null) {
+        int[] back = this.frames.getBack();
+        if (this.sampler == null) {
+          System.arraycopy(pixels, 0, back, 0, back.length);
+        } else {
+          this.sampler.sample(pixels, back, false);
+        }
+        this.frames.publish();
+      } else {
+        try {
+          this.source.awaitFrame(INGEST_TIMEOUT_MILLIS);
+        } catch (InterruptedException ix) {
+          break;
+        }
+      }
+    }
   }
 
   @Override
   public void run(double deltaMs) {
-    if (this.capture.available()) {
-      this.capture.read();
-    }
-    this.capture.loadPixels();
-    for (int i = 0; i < this.colors.length; ++i) {
-      this.colors[i] = this.capture.pixels[i];
+    startIngest();
+    int[] frame = this.frames.acquire();
+    if (frame != null) {
+      System.arraycopy(frame, 0, this.colors, 0, frame.length);
     }
   }
 
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p2lx.video;
+
+/**
+ * A source of video frames for {@link VideoCapturePattern}. Frames are pulled
+ * from the pattern's ingest thread, never from the engine thread, so a source
+ * is free to block briefly or do expensive decoding in read().
+ */
+public interface VideoFrameSource {
+
+  /**
+   * Width of frames produced by this source
+   *
+   * @return Width in pixels
+   */
+  public int getWidth();
+
+  /**
+   * Height of frames produced by this source
+   *
+   * @return Height in pixels
+   */
+  public int getHeight();
+
+  /**
+   * Prepares the source to produce frames. Called each time a pattern using
+   * it becomes active, so this should return immediately if the source is
+   * already open.
+   */
+  public void open();
+
+  /**
+   * Returns the next frame, if one is ready since the last call. The array
+   * holds ARGB pixels in row order and belongs to the source, it is only
+   * valid until the next call.
+   *
+   * @return Frame pixels, or null if there is no new frame
+   */
+  public int[] read();
+
+  /**
+   * Blocks the calling ingest thread until a frame may be ready to read, or
+   * the timeout passes. Called after read() returned null, so that ingest
+   * does not spin. Returning early is harmless.
+   *
+   * @param timeoutMillis Longest time to wait, in milliseconds
+   * @throws InterruptedException If the ingest thread is interrupted
+   */
+  public void awaitFrame(long timeoutMillis) throws InterruptedException;
+
+  /**
+   * Releases any resources held by the source. It may be opened again
+   * afterwards.
+   */
+  public void close();
+}